@@ -0,0 +1,106 @@
+package com.beney.bench;
+
+import com.beney.utils.BinaryIn;
+import com.beney.utils.BinaryOut;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BinaryIn} and {@link BinaryOut} moving {@code width}-bit codewords one
+ * bit at a time and with a single multi-bit call. One operation is one pass over
+ * {@value SIZE} bytes.
+ *
+ * @author Beney
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitIOBenchmark {
+    private static final int SIZE = 1 << 20;
+
+    @Param({"1", "8", "12", "24"})
+    public int width;
+
+    private byte[] data;
+    private int[] codewords;
+    private ByteArrayOutputStream sink;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = Corpus.RANDOM.bytes(SIZE);
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(data));
+        codewords = new int[SIZE * 8 / width];
+        for (int i = 0; i < codewords.length; i++) {
+            codewords[i] = in.readBits(width);
+        }
+        in.close();
+        sink = new ByteArrayOutputStream(SIZE + 16);
+    }
+
+    @Benchmark
+    public long readBitByBit() {
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(data));
+        long sum = 0;
+        for (int i = 0; i < codewords.length; i++) {
+            int x = 0;
+            for (int j = 0; j < width; j++) {
+                x = (x << 1) | (in.readBoolean() ? 1 : 0);
+            }
+            sum += x;
+        }
+        in.close();     // returns the chunk buffer to the pool, as the codecs do
+        return sum;
+    }
+
+    @Benchmark
+    public long readBits() {
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(data));
+        long sum = 0;
+        for (int i = 0; i < codewords.length; i++) {
+            sum += in.readBits(width);
+        }
+        in.close();
+        return sum;
+    }
+
+    @Benchmark
+    public int writeBitByBit() {
+        sink.reset();
+        BinaryOut out = new BinaryOut(sink);
+        for (int x : codewords) {
+            for (int j = width - 1; j >= 0; j--) {
+                out.write(((x >>> j) & 1) == 1);
+            }
+        }
+        out.close();    // flushes and returns the staging buffer to the pool
+        return sink.size();
+    }
+
+    @Benchmark
+    public int writeBits() {
+        sink.reset();
+        BinaryOut out = new BinaryOut(sink);
+        for (int x : codewords) {
+            out.writeBits(x, width);
+        }
+        out.close();
+        return sink.size();
+    }
+}
@@ -0,0 +1,110 @@
+package com.beney.bench;
+
+import com.beney.zip.BlockCodec;
+import com.beney.zip.BwtZip;
+import com.beney.zip.ContextHuffmanZip;
+import com.beney.zip.HuffmanZip;
+import com.beney.zip.LZ77Zip;
+import com.beney.zip.LZWZip;
+import com.beney.zip.RansZip;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compress and expand throughput of the codecs on every {@link Corpus}.
+ * The {@code rawBytes} counter is the raw data processed per second, and the
+ * compression ratio is printed once per trial.
+ *
+ * @author Beney
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"huffman", "huffman-canonical", "huffman-context", "lzw", "lzw-16", "lz77-1", "lz77-6", "lz77-9", "rans", "bwt"})
+    public String codec;
+
+    @Param({"TEXT", "LOGS", "RANDOM", "REPETITIVE", "BINARY"})
+    public Corpus corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    private BlockCodec zip;
+    private byte[] raw;
+    private byte[] compressed;
+
+    /**
+     * Bytes of raw data handled, reported by JMH as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long rawBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        zip = codec(codec);
+        raw = corpus.bytes(size);
+        compressed = zip.compressBlock(raw, 0, raw.length);
+        System.out.printf("%n%s on %s: %d -> %d bytes, ratio %.3f%n",
+                codec, corpus, raw.length, compressed.length, (double) compressed.length / raw.length);
+    }
+
+    @Benchmark
+    public byte[] compress(Bytes bytes) {
+        bytes.rawBytes += raw.length;
+        return zip.compressBlock(raw, 0, raw.length);
+    }
+
+    @Benchmark
+    public byte[] expand(Bytes bytes) {
+        bytes.rawBytes += raw.length;
+        return zip.expandBlock(compressed, 0, compressed.length);
+    }
+
+    static BlockCodec codec(String name) {
+        switch (name) {
+            case "huffman":
+                return new HuffmanZip();
+            case "huffman-canonical":
+                return new HuffmanZip(true);
+            case "huffman-context":
+                return new ContextHuffmanZip();
+            case "lzw":
+                return new LZWZip();
+            case "lzw-16":
+                return new LZWZip(16);
+            case "lz77-1":
+                return new LZ77Zip(1);
+            case "lz77-6":
+                return new LZ77Zip(6);
+            case "lz77-9":
+                return new LZ77Zip(9);
+            case "rans":
+                return new RansZip();
+            case "bwt":
+                return new BwtZip();
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.beney.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministic inputs for the benchmarks, generated from a fixed seed so every
+ * run and every machine compresses the same bytes.
+ *
+ * @author Beney
+ */
+public enum Corpus {
+    /** English-like words with a skewed word distribution */
+    TEXT {
+        @Override
+        byte[] generate(Random r, int size) {
+            StringBuilder sb = new StringBuilder(size + 64);
+            while (sb.length() < size) {
+                sb.append(WORDS[skewed(r, WORDS.length)]);
+                sb.append(r.nextInt(12) == 0 ? ".\n" : " ");
+            }
+            return truncate(sb, size);
+        }
+    },
+    /** server log lines: repeated structure, varying numbers */
+    LOGS {
+        @Override
+        byte[] generate(Random r, int size) {
+            StringBuilder sb = new StringBuilder(size + 128);
+            long time = 1_600_000_000_000L;
+            while (sb.length() < size) {
+                time += r.nextInt(1000);
+                sb.append(time).append(' ').append(LEVELS[skewed(r, LEVELS.length)])
+                        .append(" [worker-").append(r.nextInt(16)).append("] ")
+                        .append(PATHS[r.nextInt(PATHS.length)]).append(" status=")
+                        .append(r.nextInt(20) == 0 ? 500 : 200).append(" took=")
+                        .append(r.nextInt(300)).append("ms\n");
+            }
+            return truncate(sb, size);
+        }
+    },
+    /** uniformly random bytes, incompressible */
+    RANDOM {
+        @Override
+        byte[] generate(Random r, int size) {
+            byte[] data = new byte[size];
+            r.nextBytes(data);
+            return data;
+        }
+    },
+    /** a short phrase repeated over and over */
+    REPETITIVE {
+        @Override
+        byte[] generate(Random r, int size) {
+            byte[] phrase = "the quick brown fox jumps over the lazy dog ".getBytes(StandardCharsets.US_ASCII);
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = phrase[i % phrase.length];
+            }
+            return data;
+        }
+    },
+    /** little-endian records of slowly changing integers, like a numeric column */
+    BINARY {
+        @Override
+        byte[] generate(Random r, int size) {
+            byte[] data = new byte[size];
+            int x = 0;
+            for (int i = 0; i + 4 <= size; i += 4) {
+                x += r.nextInt(64) - 24;
+                data[i] = (byte) x;
+                data[i + 1] = (byte) (x >>> 8);
+                data[i + 2] = (byte) (x >>> 16);
+                data[i + 3] = (byte) (x >>> 24);
+            }
+            return data;
+        }
+    };
+
+    private static final long SEED = 42;
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "in", "a", "is", "that", "for", "it", "as", "was", "with",
+            "be", "by", "on", "not", "he", "this", "are", "or", "his", "from", "at", "which",
+            "but", "have", "an", "had", "they", "you", "were", "their", "one", "all", "we",
+            "compression", "entropy", "dictionary", "symbol", "frequency", "stream", "block"
+    };
+    private static final String[] LEVELS = {"INFO", "DEBUG", "WARN", "ERROR"};
+    private static final String[] PATHS = {
+            "GET /api/users", "GET /api/orders", "POST /api/orders", "GET /static/app.js",
+            "PUT /api/users/profile", "DELETE /api/sessions", "GET /health"
+    };
+
+    /**
+     * @param size bytes to generate
+     * @return the same {@code size} bytes on every call
+     */
+    public byte[] bytes(int size) {
+        return generate(new Random(SEED), size);
+    }
+
+    abstract byte[] generate(Random r, int size);
+
+    // index in [0, n), small indexes much more likely
+    private static int skewed(Random r, int n) {
+        double u = r.nextDouble();
+        return (int) (n * u * u * u);
+    }
+
+    private static byte[] truncate(StringBuilder sb, int size) {
+        sb.setLength(size);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,99 @@
+package com.beney.bench;
+
+import com.beney.zip.ArchiveZip.Codec;
+import com.beney.zip.ZipClient;
+import com.beney.zip.ZipServer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for {@link ZipServer}: every connection keeps {@code depth} compress
+ * requests of {@code size} bytes of {@link Corpus#LOGS} in flight, and the latency of
+ * every request, from its send to its answer, is reported as percentiles. Starts a
+ * server in this process unless a port is given.
+ * <p>
+ * usage: {@code java -cp benchmarks/target/benchmarks.jar com.beney.bench.ServerLoad
+ * [connections [depth [size [requests [codec [port]]]]]]}, {@code requests} per connection
+ *
+ * @author Beney
+ */
+public class ServerLoad {
+    private static final int CORPUS = 1 << 22;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 14;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        Codec codec = args.length > 4 ? Codec.valueOf(args[4]) : Codec.HUFFMAN;
+        ZipServer server = args.length > 5 ? null : new ZipServer();
+        int port = server == null ? Integer.parseInt(args[5]) : server.port();
+        byte[] corpus = Corpus.LOGS.bytes(CORPUS);
+
+        ExecutorService clients = Executors.newFixedThreadPool(connections);
+        try {
+            run(clients, connections, depth, size, requests / 10, codec, port, corpus);    // warm-up
+            long start = System.nanoTime();
+            long[] latencies = run(clients, connections, depth, size, requests, codec, port, corpus);
+            long nanos = System.nanoTime() - start;
+            Arrays.sort(latencies);
+            System.out.printf("%s, %d connections x %d in flight, %d bytes per request%n",
+                    codec, connections, depth, size);
+            System.out.printf("%d requests in %.1f ms: %.0f requests/s, %.1f MB/s%n", latencies.length, nanos / 1e6,
+                    latencies.length * 1e9 / nanos, (double) latencies.length * size * 1e3 / nanos);
+            System.out.printf("latency us: p50 %.0f, p90 %.0f, p99 %.0f, p99.9 %.0f, max %.0f%n",
+                    percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e3);
+        } finally {
+            clients.shutdown();
+            if (server != null) server.close();
+        }
+    }
+
+    /**
+     * @return latency of every request of every connection, in nanoseconds
+     */
+    private static long[] run(ExecutorService clients, int connections, int depth, int size, int requests,
+                              Codec codec, int port, byte[] corpus) throws Exception {
+        @SuppressWarnings("unchecked")
+        Future<long[]>[] results = new Future[connections];
+        for (int c = 0; c < connections; c++) {
+            long seed = c;
+            results[c] = clients.submit(() -> connection(depth, size, requests, codec, port, corpus, seed));
+        }
+        long[] all = new long[connections * requests];
+        for (int c = 0; c < connections; c++) {
+            System.arraycopy(results[c].get(), 0, all, c * requests, requests);
+        }
+        return all;
+    }
+
+    private static long[] connection(int depth, int size, int requests, Codec codec, int port,
+                                     byte[] corpus, long seed) throws IOException {
+        Random r = new Random(seed);
+        long[] sentAt = new long[requests];
+        long[] latencies = new long[requests];
+        try (ZipClient client = new ZipClient(port)) {
+            int sent = 0;
+            for (int done = 0; done < requests; done++) {
+                while (sent < requests && client.inFlight() < depth) {
+                    sentAt[sent] = System.nanoTime();
+                    int id = client.send(true, codec, corpus, r.nextInt(corpus.length - size), size);
+                    sent = id + 1;
+                }
+                client.receive();
+                latencies[done] = System.nanoTime() - sentAt[done];
+            }
+        }
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e3;
+    }
+}
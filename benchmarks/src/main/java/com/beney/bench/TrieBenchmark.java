@@ -0,0 +1,156 @@
+package com.beney.bench;
+
+import com.beney.common.IntTernarySearchTrie;
+import com.beney.common.TernarySearchTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TernarySearchTrie} and {@link IntTernarySearchTrie} under an LZW-like workload:
+ * the keys are the strings an LZW parse of {@link Corpus#TEXT} would add to its
+ * dictionary, and the queries look up the longest key at successive positions of the text.
+ *
+ * @author Beney
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrieBenchmark {
+    private static final int QUERY = 16;    // chars per query, longer than any key
+
+    @Param({"4096", "65536"})
+    public int keys;
+
+    private byte[] bytes;
+    private String text;
+    private String[] words;
+    private TernarySearchTrie<Integer> trie;
+    private IntTernarySearchTrie intTrie;
+    private IntTernarySearchTrie reused;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bytes = Corpus.TEXT.bytes(1 << 20);
+        text = new String(bytes, StandardCharsets.ISO_8859_1);
+        trie = new TernarySearchTrie<>();
+        List<String> list = new ArrayList<>();
+        for (int c = 0; c < 256; c++) {
+            list.add(String.valueOf((char) c));
+            trie.put(list.get(c), c);
+        }
+        for (int i = 0; i < text.length() && list.size() < keys; ) {
+            String s = trie.longestPrefixOf(text.substring(i, Math.min(text.length(), i + QUERY)));
+            if (i + s.length() < text.length() && s.length() < QUERY - 1) {
+                String next = text.substring(i, i + s.length() + 1);
+                trie.put(next, list.size());
+                list.add(next);
+            }
+            i += s.length();
+        }
+        words = list.toArray(new String[0]);
+        intTrie = new IntTernarySearchTrie();
+        for (int i = 0; i < words.length; i++) {
+            intTrie.put(words[i], i);
+        }
+        reused = new IntTernarySearchTrie();
+    }
+
+    /**
+     * builds a trie of all keys
+     */
+    @Benchmark
+    public TernarySearchTrie<Integer> put() {
+        TernarySearchTrie<Integer> t = new TernarySearchTrie<>();
+        for (int i = 0; i < words.length; i++) {
+            t.put(words[i], i);
+        }
+        return t;
+    }
+
+    /**
+     * parses the first 64 KB of the text into longest matches
+     */
+    @Benchmark
+    public int longestPrefixOf() {
+        int matched = 0;
+        for (int i = 0; i < 1 << 16; ) {
+            String s = trie.longestPrefixOf(text.substring(i, i + QUERY));
+            matched++;
+            i += s.length();
+        }
+        return matched;
+    }
+
+    /**
+     * builds an {@link IntTernarySearchTrie} of all keys, reusing the arrays of the last build
+     */
+    @Benchmark
+    public IntTernarySearchTrie putInt() {
+        reused.clear();
+        for (int i = 0; i < words.length; i++) {
+            reused.put(words[i], i);
+        }
+        return reused;
+    }
+
+    /**
+     * {@link #longestPrefixOf()} on the {@link IntTernarySearchTrie}
+     */
+    @Benchmark
+    public int longestPrefixOfInt() {
+        int matched = 0;
+        for (int i = 0; i < 1 << 16; ) {
+            String s = intTrie.longestPrefixOf(text.substring(i, i + QUERY));
+            matched++;
+            i += s.length();
+        }
+        return matched;
+    }
+
+    /**
+     * {@link #longestPrefixOf()} matching the bytes in place with a reused cursor,
+     * which also yields the value of every match
+     */
+    @Benchmark
+    public long cursor() {
+        TernarySearchTrie<Integer>.Cursor cursor = trie.cursor();
+        long sum = 0;
+        for (int i = 0; i < 1 << 16; ) {
+            i += cursor.match(bytes, i, QUERY);
+            sum += cursor.value();
+        }
+        return sum;
+    }
+
+    /**
+     * {@link #cursor()} on the {@link IntTernarySearchTrie}
+     */
+    @Benchmark
+    public long cursorInt() {
+        IntTernarySearchTrie.Cursor cursor = intTrie.cursor();
+        long sum = 0;
+        for (int i = 0; i < 1 << 16; ) {
+            i += cursor.match(bytes, i, QUERY);
+            sum += cursor.value();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,402 @@
+package com.beney.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link TernarySearchTrie} with string keys and non-negative {@code int} values,
+ * its nodes kept in parallel arrays instead of objects: node {@code x} is
+ * {@code c[x]}, {@code left[x]}, {@code mid[x]}, {@code right[x]} and {@code val[x]},
+ * and {@code 0} stands for the missing child. Nothing is boxed, all operations are
+ * loops rather than recursion, and {@link #clear()} keeps the arrays for reuse.
+ *
+ * @author Beney
+ */
+public class IntTernarySearchTrie {
+    private static final int NONE = -1;     // val of a node that ends no key
+
+    private char[] c;
+    private int[] left, mid, right;
+    private int[] val;
+    private int nodes = 1;      // nodes in use, node 0 is never used
+    private int root;           // 0 for an empty trie
+    private int size;
+
+    public IntTernarySearchTrie() {
+        this(64);
+    }
+
+    /**
+     * @param capacity nodes to allocate room for up front
+     */
+    public IntTernarySearchTrie(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Illegal value for capacity = " + capacity);
+        capacity++;
+        c = new char[capacity];
+        left = new int[capacity];
+        mid = new int[capacity];
+        right = new int[capacity];
+        val = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key key
+     * @return {@code true} if this symbol table contains {@code key}
+     *      and {@code false} otherwise
+     */
+    public boolean contains(String key) {
+        return get(key) != NONE;
+    }
+
+    /**
+     * @param key key
+     * @return the value associated with the given key if the key exist in the
+     *      symbol table, {@code -1} otherwise
+     */
+    public int get(String key) {
+        if (key == null || key.length() == 0) return NONE;
+        int x = root, idx = 0, last = key.length() - 1;
+        while (x != 0) {
+            char ch = key.charAt(idx);
+            if      (ch < c[x])   x = left[x];
+            else if (ch > c[x])   x = right[x];
+            else if (idx < last) {
+                idx++;
+                x = mid[x];
+            } else                return val[x];
+        }
+        return NONE;
+    }
+
+    /**
+     * Insert key-value pair into the symbol table in a single pass, overwriting
+     * the old value with the new if the key is already in the table.
+     *
+     * @param key key
+     * @param val value, at least {@code 0}
+     */
+    public void put(String key, int val) {
+        if (key == null || key.length() == 0) return;
+        if (val < 0) throw new IllegalArgumentException("Illegal value = " + val);
+        if (root == 0) root = newNode(key.charAt(0));
+        int x = root, idx = 0, last = key.length() - 1;
+        while (true) {
+            char ch = key.charAt(idx);
+            int next;
+            if (ch < c[x]) {
+                if ((next = left[x]) == 0) {
+                    next = newNode(ch);
+                    left[x] = next;
+                }
+            } else if (ch > c[x]) {
+                if ((next = right[x]) == 0) {
+                    next = newNode(ch);
+                    right[x] = next;
+                }
+            } else if (idx < last) {
+                idx++;
+                if ((next = mid[x]) == 0) {
+                    next = newNode(key.charAt(idx));
+                    mid[x] = next;
+                }
+            } else {
+                if (this.val[x] == NONE) size++;
+                this.val[x] = val;
+                return;
+            }
+            x = next;
+        }
+    }
+
+    /**
+     * Removes the key from the table, keeping its nodes.
+     *
+     * @param key key
+     */
+    public void remove(String key) {
+        if (key == null || key.length() == 0) return;
+        int x = root, idx = 0, last = key.length() - 1;
+        while (x != 0) {
+            char ch = key.charAt(idx);
+            if      (ch < c[x])   x = left[x];
+            else if (ch > c[x])   x = right[x];
+            else if (idx < last) {
+                idx++;
+                x = mid[x];
+            } else {
+                if (val[x] != NONE) size--;
+                val[x] = NONE;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes every key in constant time, keeping the arrays for the keys put next.
+     */
+    public void clear() {
+        root = 0;
+        nodes = 1;
+        size = 0;
+    }
+
+    /**
+     * @param query query string
+     * @return the string in the symbol table that is the longest prefix
+     *      of {@code query}, or {@code null} if no such string.
+     */
+    public String longestPrefixOf(String query) {
+        if (query == null || query.length() == 0) {
+            return null;
+        }
+        int len = 0, queryLength = query.length();
+        int x = root;
+        int idx = 0;
+        while (x != 0 && idx < queryLength) {
+            char ch = query.charAt(idx);
+            if (ch < c[x]) x = left[x];
+            else if (ch > c[x]) {
+                x = right[x];
+            } else {
+                idx++;
+                if (val[x] != NONE) len = idx;
+                x = mid[x];
+            }
+        }
+        return query.substring(0, len);
+    }
+
+    /**
+     * Allocation-free form of {@link #longestPrefixOf(String)} for byte input,
+     * every byte taken as the char {@code 0..255}. Only the length is returned;
+     * callers that need the value of the match use {@code cursor().match(buf, off, len)}
+     * and then {@link Cursor#value()}, reusing the cursor.
+     *
+     * @param buf input
+     * @param off offset of the query in {@code buf}
+     * @param len length of the query
+     * @return length of the longest key that is a prefix of the query, {@code 0} if none
+     */
+    public int longestPrefixOf(byte[] buf, int off, int len) {
+        int match = 0;
+        int x = root;
+        int idx = 0;
+        while (x != 0 && idx < len) {
+            char ch = (char) (buf[off + idx] & 0xff);
+            if (ch < c[x]) x = left[x];
+            else if (ch > c[x]) x = right[x];
+            else {
+                idx++;
+                if (val[x] != NONE) match = idx;
+                x = mid[x];
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Allocation-free form of {@link #longestPrefixOf(String)} for char input.
+     *
+     * @param buf input
+     * @param off offset of the query in {@code buf}
+     * @param len length of the query
+     * @return length of the longest key that is a prefix of the query, {@code 0} if none
+     */
+    public int longestPrefixOf(char[] buf, int off, int len) {
+        int match = 0;
+        int x = root;
+        int idx = 0;
+        while (x != 0 && idx < len) {
+            char ch = buf[off + idx];
+            if (ch < c[x]) x = left[x];
+            else if (ch > c[x]) x = right[x];
+            else {
+                idx++;
+                if (val[x] != NONE) match = idx;
+                x = mid[x];
+            }
+        }
+        return match;
+    }
+
+    /**
+     * @return a cursor at the root, see {@link Cursor}
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the trie one char at a time, remembering the longest key passed and
+     * its value, so input can be matched in place in a single pass. A cursor is
+     * reused with {@link #reset()}, which also picks up changes to the trie.
+     */
+    public final class Cursor {
+        private int next;       // node holding the next char, 0 once no key continues
+        private int depth;      // chars stepped over
+        private int length;     // length of the longest key passed
+        private int value;      // value of that key
+
+        private Cursor() {
+            reset();
+        }
+
+        /**
+         * Moves back to the root, forgetting the match.
+         *
+         * @return this cursor
+         */
+        public Cursor reset() {
+            next = root;
+            depth = 0;
+            length = 0;
+            value = NONE;
+            return this;
+        }
+
+        /**
+         * Advances over {@code ch}.
+         *
+         * @param ch next char of the input
+         * @return {@code false} if no key continues with {@code ch}; the cursor then
+         *      stays dead until {@link #reset()}
+         */
+        public boolean step(char ch) {
+            int x = next;
+            while (x != 0) {
+                if (ch < c[x]) x = left[x];
+                else if (ch > c[x]) x = right[x];
+                else {
+                    depth++;
+                    if (val[x] != NONE) {
+                        length = depth;
+                        value = val[x];
+                    }
+                    next = mid[x];
+                    return true;
+                }
+            }
+            next = 0;
+            return false;
+        }
+
+        /**
+         * Resets, then steps over the bytes of {@code buf[off, off + len)} as chars
+         * {@code 0..255} while keys continue.
+         *
+         * @return {@link #length()}
+         */
+        public int match(byte[] buf, int off, int len) {
+            reset();
+            int i = off;
+            while (i < off + len && step((char) (buf[i] & 0xff))) {
+                i++;
+            }
+            return length;
+        }
+
+        /**
+         * Resets, then steps over the chars of {@code buf[off, off + len)} while keys continue.
+         *
+         * @return {@link #length()}
+         */
+        public int match(char[] buf, int off, int len) {
+            reset();
+            int i = off;
+            while (i < off + len && step(buf[i])) {
+                i++;
+            }
+            return length;
+        }
+
+        /**
+         * @return chars stepped over since the last reset
+         */
+        public int depth() {
+            return depth;
+        }
+
+        /**
+         * @return length of the longest key stepped over, {@code 0} if none
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @return value of the longest key stepped over, {@code -1} if none
+         */
+        public int value() {
+            return value;
+        }
+    }
+
+    /**
+     * @return all keys in the table in sorted order as an {@code Iterable}
+     */
+    public Iterable<String> keys() {
+        List<String> keys = new ArrayList<>(size);
+        if (root == 0) return keys;
+        // in-order walk with an explicit stack of (node << 1 | visited, depth)
+        int[] stack = new int[32], depth = new int[32];
+        char[] prefix = new char[16];
+        int top = 0;
+        stack[top] = root << 1;
+        depth[top++] = 0;
+        while (top > 0) {
+            int e = stack[--top], x = e >>> 1, d = depth[top];
+            if (top + 3 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+                depth = Arrays.copyOf(depth, 2 * depth.length);
+            }
+            if ((e & 1) == 0) {
+                // the left subtree comes before the node
+                stack[top] = e | 1;
+                depth[top++] = d;
+                if (left[x] != 0) {
+                    stack[top] = left[x] << 1;
+                    depth[top++] = d;
+                }
+                continue;
+            }
+            if (d == prefix.length) prefix = Arrays.copyOf(prefix, 2 * d);
+            prefix[d] = c[x];
+            if (val[x] != NONE) keys.add(new String(prefix, 0, d + 1));
+            // the middle subtree, which extends prefix[0..d], before the right one
+            if (right[x] != 0) {
+                stack[top] = right[x] << 1;
+                depth[top++] = d;
+            }
+            if (mid[x] != 0) {
+                stack[top] = mid[x] << 1;
+                depth[top++] = d + 1;
+            }
+        }
+        return keys;
+    }
+
+    //**************************** private methods ********************************//
+
+    private int newNode(char ch) {
+        if (nodes == c.length) {
+            int capacity = 2 * c.length;
+            c = Arrays.copyOf(c, capacity);
+            left = Arrays.copyOf(left, capacity);
+            mid = Arrays.copyOf(mid, capacity);
+            right = Arrays.copyOf(right, capacity);
+            val = Arrays.copyOf(val, capacity);
+        }
+        int x = nodes++;
+        c[x] = ch;
+        left[x] = 0;
+        mid[x] = 0;
+        right[x] = 0;
+        val[x] = NONE;
+        return x;
+    }
+}
@@ -120,6 +120,169 @@ public class TernarySearchTrie<V> {
         return query.substring(0, len);
     }
 
+    /**
+     * Allocation-free form of {@link #longestPrefixOf(String)} for byte input,
+     * every byte taken as the char {@code 0..255}.
+     *
+     * @param buf input
+     * @param off offset of the query in {@code buf}
+     * @param len length of the query
+     * @return length of the longest key that is a prefix of the query, {@code 0} if none
+     */
+    public int longestPrefixOf(byte[] buf, int off, int len) {
+        int match = 0;
+        Node<V> x = root;
+        int idx = 0;
+        while (x != null && idx < len) {
+            char c = (char) (buf[off + idx] & 0xff);
+            if (c < x.c) x = x.left;
+            else if (c > x.c) x = x.right;
+            else {
+                idx++;
+                if (x.val != null) match = idx;
+                x = x.mid;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Allocation-free form of {@link #longestPrefixOf(String)} for char input.
+     *
+     * @param buf input
+     * @param off offset of the query in {@code buf}
+     * @param len length of the query
+     * @return length of the longest key that is a prefix of the query, {@code 0} if none
+     */
+    public int longestPrefixOf(char[] buf, int off, int len) {
+        int match = 0;
+        Node<V> x = root;
+        int idx = 0;
+        while (x != null && idx < len) {
+            char c = buf[off + idx];
+            if (c < x.c) x = x.left;
+            else if (c > x.c) x = x.right;
+            else {
+                idx++;
+                if (x.val != null) match = idx;
+                x = x.mid;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * @return a cursor at the root, see {@link Cursor}
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the trie one char at a time, remembering the longest key passed and
+     * its value, so input can be matched in place in a single pass. A cursor is
+     * reused with {@link #reset()}, which also picks up changes to the trie.
+     */
+    public final class Cursor {
+        private Node<V> next;   // subtrie holding the next char, null once no key continues
+        private int depth;      // chars stepped over
+        private int length;     // length of the longest key passed
+        private V value;        // value of that key
+
+        private Cursor() {
+            reset();
+        }
+
+        /**
+         * Moves back to the root, forgetting the match.
+         *
+         * @return this cursor
+         */
+        public Cursor reset() {
+            next = root;
+            depth = 0;
+            length = 0;
+            value = null;
+            return this;
+        }
+
+        /**
+         * Advances over {@code c}.
+         *
+         * @param c next char of the input
+         * @return {@code false} if no key continues with {@code c}; the cursor then
+         *      stays dead until {@link #reset()}
+         */
+        public boolean step(char c) {
+            Node<V> x = next;
+            while (x != null) {
+                if (c < x.c) x = x.left;
+                else if (c > x.c) x = x.right;
+                else {
+                    depth++;
+                    if (x.val != null) {
+                        length = depth;
+                        value = x.val;
+                    }
+                    next = x.mid;
+                    return true;
+                }
+            }
+            next = null;
+            return false;
+        }
+
+        /**
+         * Resets, then steps over the bytes of {@code buf[off, off + len)} as chars
+         * {@code 0..255} while keys continue.
+         *
+         * @return {@link #length()}
+         */
+        public int match(byte[] buf, int off, int len) {
+            reset();
+            int i = off;
+            while (i < off + len && step((char) (buf[i] & 0xff))) {
+                i++;
+            }
+            return length;
+        }
+
+        /**
+         * Resets, then steps over the chars of {@code buf[off, off + len)} while keys continue.
+         *
+         * @return {@link #length()}
+         */
+        public int match(char[] buf, int off, int len) {
+            reset();
+            int i = off;
+            while (i < off + len && step(buf[i])) {
+                i++;
+            }
+            return length;
+        }
+
+        /**
+         * @return chars stepped over since the last reset
+         */
+        public int depth() {
+            return depth;
+        }
+
+        /**
+         * @return length of the longest key stepped over, {@code 0} if none
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @return value of the longest key stepped over, {@code null} if none
+         */
+        public V value() {
+            return value;
+        }
+    }
+
     /**
      *
      * @return all keys in the table as an {@code Iterable}
@@ -4,20 +4,42 @@ import java.io.*;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.NoSuchElementException;
 
+/**
+ * Reads bits from a stream, a file channel or a mapped file.
+ * <p>
+ * Input is read a chunk at a time, not as bits are asked for: an instance over an
+ * {@code InputStream}, socket or URL reads ahead by up to {@value CHUNK} bytes, and one
+ * over a file channel by up to {@value DIRECT_CHUNK}. Once done, the underlying stream
+ * is at an arbitrary point past the last bit decoded, so bytes that follow what this
+ * instance decodes must not be read from the stream directly.
+ */
 public final class BinaryIn {
-    private static final int EOF = -1;   // end of file
-
-    private BufferedInputStream in;      // the input stream
-    private int buffer;                  // one character buffer
+    private static final int CHUNK = 1 << 16;           // bytes read from a stream at a time
+    private static final int DIRECT_CHUNK = 1 << 20;    // bytes read from a file channel at a time
+    private static final long MAP_WINDOW = 1L << 26;    // bytes of a file mapped at a time
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private InputStream in;              // the input stream, or
+    private FileChannel channel;         // the file channel
+    private boolean map;                 // map the channel in windows instead of reading it
+    private long mapped;                 // file position of the next window to map
+    private ByteBuffer chunk = EMPTY;    // unread bytes are between position and limit
+    private ByteBuffer pooled;           // chunk buffer borrowed from the BufferPool, if any
+    private long buffer;                 // bit window, the low n bits are unread
     private int n;                       // number of bits left in buffer
+    private boolean eof;                 // underlying stream is exhausted
 
     /**
      * Initializes a binary input stream from standard input.
      */
     public BinaryIn() {
-        in = new BufferedInputStream(System.in);
+        in = System.in;
+        chunk = borrow(false, CHUNK);
         fillBuffer();
     }
 
@@ -27,7 +49,8 @@ public final class BinaryIn {
      * @param is the {@code InputStream} object
      */
     public BinaryIn(InputStream is) {
-        in = new BufferedInputStream(is);
+        in = is;
+        chunk = borrow(false, CHUNK);
         fillBuffer();
     }
 
@@ -39,7 +62,8 @@ public final class BinaryIn {
     public BinaryIn(Socket socket) {
         try {
             InputStream is = socket.getInputStream();
-            in = new BufferedInputStream(is);
+            in = is;
+            chunk = borrow(false, CHUNK);
             fillBuffer();
         }
         catch (IOException ioe) {
@@ -56,7 +80,8 @@ public final class BinaryIn {
         try {
             URLConnection site = url.openConnection();
             InputStream is     = site.getInputStream();
-            in = new BufferedInputStream(is);
+            in = is;
+            chunk = borrow(false, CHUNK);
             fillBuffer();
         }
         catch (IOException ioe) {
@@ -64,8 +89,33 @@ public final class BinaryIn {
         }
     }
 
+    /**
+     * Initializes a binary input stream from a file channel, read sequentially
+     * from its current position through a large direct buffer.
+     *
+     * @param channel the file channel
+     */
+    public BinaryIn(FileChannel channel) {
+        this(channel, false);
+    }
+
+    /**
+     * Initializes a binary input stream from a file channel.
+     *
+     * @param channel the file channel
+     * @param map     {@code true} to map the file in windows from its start instead of
+     *                reading it from its current position, which saves a copy per byte
+     */
+    public BinaryIn(FileChannel channel, boolean map) {
+        this.channel = channel;
+        this.map = map;
+        if (!map) chunk = borrow(true, DIRECT_CHUNK);
+        fillBuffer();
+    }
+
     /**
      * Initializes a binary input stream from a filename or URL name.
+     * Local files are memory-mapped.
      *
      * @param name the name of the file or URL
      */
@@ -75,8 +125,8 @@ public final class BinaryIn {
             // first try to read file from local file system
             File file = new File(name);
             if (file.exists()) {
-                FileInputStream fis = new FileInputStream(file);
-                in = new BufferedInputStream(fis);
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                map = true;
                 fillBuffer();
                 return;
             }
@@ -91,7 +141,8 @@ public final class BinaryIn {
 
             URLConnection site = url.openConnection();
             InputStream is     = site.getInputStream();
-            in = new BufferedInputStream(is);
+            in = is;
+            chunk = borrow(false, CHUNK);
             fillBuffer();
         }
         catch (IOException ioe) {
@@ -99,15 +150,91 @@ public final class BinaryIn {
         }
     }
 
+    // chunk buffers of streams and read channels come from the shared pool
+    private ByteBuffer borrow(boolean direct, int capacity) {
+        pooled = direct ? BufferPool.shared().direct(capacity) : BufferPool.shared().heap(capacity);
+        return pooled.limit(0);
+    }
+
     private void fillBuffer() {
+        fillBuffer(8);
+    }
+
+    // top the window up from the chunk, reading a new chunk only if fewer than r bits are left
+    private void fillBuffer(int r) {
+        while (n <= 56) {
+            if (!chunk.hasRemaining() && (n >= r || !readChunk())) return;
+            buffer = (buffer << 8) | (chunk.get() & 0xff);
+            n += 8;
+        }
+    }
+
+    // read as much as the stream gives at once, up to a whole chunk, not just what is needed
+    private boolean readChunk() {
+        if (eof || (in == null && channel == null)) {
+            eof = true;
+            return false;
+        }
         try {
-            buffer = in.read();
-            n = 8;
+            if (map) {
+                long size = channel.size();
+                if (mapped >= size) {
+                    eof = true;
+                    return false;
+                }
+                long length = Math.min(MAP_WINDOW, size - mapped);
+                chunk = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+                mapped += length;
+                return true;
+            }
+            int k;
+            chunk.clear();
+            do {
+                if (channel != null) k = channel.read(chunk);
+                else k = in.read(chunk.array(), 0, chunk.capacity());
+            } while (k == 0);
+            if (k < 0) {
+                eof = true;
+                chunk.limit(0);
+                return false;
+            }
+            if (channel == null) chunk.position(k);
+            chunk.flip();
+            return true;
         }
         catch (IOException e) {
             System.err.println("EOF");
-            buffer = EOF;
-            n = -1;
+            eof = true;
+            return false;
+        }
+    }
+
+    /**
+     * Returns the read buffer to the {@link BufferPool} and stops reading, leaving
+     * the underlying stream or channel open for its owner. Bytes read ahead into the
+     * buffer are lost.
+     */
+    public void release() {
+        if (pooled != null) {
+            BufferPool.shared().release(pooled);
+            pooled = null;
+            chunk = EMPTY;
+        }
+        eof = true;
+    }
+
+    /**
+     * Closes the underlying stream or channel and returns the read buffer to the
+     * {@link BufferPool}. Once it is closed, bits can no longer be read.
+     */
+    public void close() {
+        release();
+        try {
+            if (in != null) in.close();
+            if (channel != null) channel.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -118,7 +245,7 @@ public final class BinaryIn {
      *         {@code false} otherwise
      */
     public boolean exists()  {
-        return in != null;
+        return in != null || channel != null;
     }
 
     /**
@@ -128,7 +255,72 @@ public final class BinaryIn {
      *         {@code false} otherwise
      */
     public boolean isEmpty() {
-        return buffer == EOF;
+        if (n == 0) fillBuffer();
+        return n == 0;
+    }
+
+    /**
+     * Returns the next <em>r</em> bits of this binary input stream without consuming them.
+     * Bits past the end of the stream read as {@code 0}.
+     *
+     * @param  r number of bits to peek, between 1 and 32
+     * @return the next {@code r} bits as the low bits of an {@code int}
+     */
+    public int peekBits(int r) {
+        if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
+        if (n < r) fillBuffer(r);
+        if (n >= r) return (int) ((buffer >>> (n - r)) & ((1L << r) - 1));
+        return (int) ((buffer << (r - n)) & ((1L << r) - 1));
+    }
+
+    /**
+     * Reads the next <em>r</em> bits of this binary input stream.
+     *
+     * @param  r number of bits to read, between 1 and 32
+     * @return the next {@code r} bits as the low bits of an {@code int}
+     */
+    public int readBits(int r) {
+        if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
+        if (n < r) fillBuffer(r);
+        if (n < r) throw new NoSuchElementException("Reading from empty input stream");
+        n -= r;
+        return (int) ((buffer >>> n) & ((1L << r) - 1));
+    }
+
+    /**
+     * Reads the next {@code len} bytes of this binary input stream into {@code b}.
+     *
+     * @param b   destination
+     * @param off offset of the first byte in {@code b}
+     * @param len number of bytes to read
+     */
+    public void read(byte[] b, int off, int len) {
+        int i = off, end = off + len;
+        // unaligned or still in the bit window: one byte at a time
+        while (i < end && (n >= 8 || (n & 7) != 0)) {
+            b[i++] = (byte) readBits(8);
+        }
+        // byte-aligned with an empty window: copy whole runs of the chunk
+        while (i < end) {
+            if (!chunk.hasRemaining() && !readChunk())
+                throw new NoSuchElementException("Reading from empty input stream");
+            int k = Math.min(end - i, chunk.remaining());
+            chunk.get(b, i, k);
+            i += k;
+        }
+    }
+
+    /**
+     * Skips the next <em>r</em> bits of this binary input stream, usually after
+     * they have been inspected with {@link #peekBits(int)}.
+     *
+     * @param r number of bits to consume, between 0 and 32
+     */
+    public void consumeBits(int r) {
+        if (r < 0 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
+        if (n < r) fillBuffer(r);
+        if (n < r) throw new NoSuchElementException("Reading from empty input stream");
+        n -= r;
     }
 
     /**
@@ -139,9 +331,7 @@ public final class BinaryIn {
     public boolean readBoolean() {
         if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
         n--;
-        boolean bit = ((buffer >> n) & 1) == 1;
-        if (n == 0) fillBuffer();
-        return bit;
+        return ((buffer >>> n) & 1) == 1;
     }
 
     /**
@@ -150,26 +340,7 @@ public final class BinaryIn {
      * @return the next 8 bits of data from this binary input stream as a {@code char}
      */
     public char readChar() {
-        if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-
-        // special case when aligned byte
-        if (n == 8) {
-            int x = buffer;
-            fillBuffer();
-            return (char) (x & 0xff);
-        }
-
-        // combine last N bits of current buffer with first 8-N bits of new buffer
-        int x = buffer;
-        x <<= (8 - n);
-        int oldN = n;
-        fillBuffer();
-        if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-        n = oldN;
-        x |= (buffer >>> n);
-        return (char) (x & 0xff);
-        // the above code doesn't quite work for the last character if N = 8
-        // because buffer will be -1
+        return (char) readBits(8);
     }
 
 
@@ -183,16 +354,7 @@ public final class BinaryIn {
     public char readChar(int r) {
         if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value of r = " + r);
 
-        // optimize r = 8 case
-        if (r == 8) return readChar();
-
-        char x = 0;
-        for (int i = 0; i < r; i++) {
-            x <<= 1;
-            boolean bit = readBoolean();
-            if (bit) x |= 1;
-        }
-        return x;
+        return (char) readBits(r);
     }
 
 
@@ -219,13 +381,7 @@ public final class BinaryIn {
      * @return the next 16 bits of data from this binary input stream as a {@code short}
      */
     public short readShort() {
-        short x = 0;
-        for (int i = 0; i < 2; i++) {
-            char c = readChar();
-            x <<= 8;
-            x |= c;
-        }
-        return x;
+        return (short) readBits(16);
     }
 
     /**
@@ -234,13 +390,7 @@ public final class BinaryIn {
      * @return the next 32 bits of data from this binary input stream as a {@code int}
      */
     public int readInt() {
-        int x = 0;
-        for (int i = 0; i < 4; i++) {
-            char c = readChar();
-            x <<= 8;
-            x |= c;
-        }
-        return x;
+        return readBits(32);
     }
 
     /**
@@ -253,16 +403,7 @@ public final class BinaryIn {
     public int readInt(int r) {
         if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
 
-        // optimize r = 32 case
-        if (r == 32) return readInt();
-
-        int x = 0;
-        for (int i = 0; i < r; i++) {
-            x <<= 1;
-            boolean bit = readBoolean();
-            if (bit) x |= 1;
-        }
-        return x;
+        return readBits(r);
     }
 
     /**
@@ -271,13 +412,8 @@ public final class BinaryIn {
      * @return the next 64 bits of data from this binary input stream as a {@code long}
      */
     public long readLong() {
-        long x = 0;
-        for (int i = 0; i < 8; i++) {
-            char c = readChar();
-            x <<= 8;
-            x |= c;
-        }
-        return x;
+        long x = readBits(32);
+        return (x << 32) | (readBits(32) & 0xffffffffL);
     }
 
     /**
@@ -1,23 +1,34 @@
 package com.beney.utils;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public final class BinaryOut {
+    private static final int STAGING = 1 << 16;           // bytes staged before each write to a stream
+    private static final int DIRECT_STAGING = 1 << 20;    // bytes staged before each write to a file channel
+    private static final int MAX_BITS = 57;       // most bits accepted by a single writeBits
+    private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);   // staging once returned to the pool
 
-    private BufferedOutputStream out;  // the output stream
-    private int buffer;                // 8-bit buffer of bits to write out
-    private int n;                     // number of bits remaining in buffer
+    private OutputStream out;          // the output stream, or
+    private FileChannel channel;       // the file channel
+    private ByteBuffer staging;        // bytes staged between 0 and position
+    private long written;              // bytes handed to the stream or channel
+    private long buffer;               // 64-bit accumulator, the low n bits are pending
+    private int n;                     // number of bits pending in buffer
+    private IOException error;         // first failure of the stream or channel
 
 
     /**
      * default standard output.
      */
     public BinaryOut() {
-        out = new BufferedOutputStream(System.out);
+        out = System.out;
+        staging = BufferPool.shared().heap(STAGING);
     }
 
     /**
@@ -25,7 +36,18 @@ public final class BinaryOut {
      * @param os the {@code OutputStream}
      */
     public BinaryOut(OutputStream os) {
-        out = new BufferedOutputStream(os);
+        out = os;
+        staging = BufferPool.shared().heap(STAGING);
+    }
+
+    /**
+     * Initializes a binary output stream from a file channel, written
+     * from its current position through a large direct buffer.
+     * @param channel the file channel
+     */
+    public BinaryOut(FileChannel channel) {
+        this.channel = channel;
+        staging = BufferPool.shared().direct(DIRECT_STAGING);
     }
 
     /**
@@ -33,13 +55,55 @@ public final class BinaryOut {
      * @param filename the name of the file
      */
     public BinaryOut(String filename) {
+        staging = BufferPool.shared().direct(DIRECT_STAGING);
+        try {
+            channel = FileChannel.open(Paths.get(filename),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes the low <em>r</em> bits of {@code x} to the binary output stream,
+     * most significant bit first.
+     *
+     * @param x the bits to write
+     * @param r number of bits, between 0 and {@value MAX_BITS}
+     */
+    public void writeBits(long x, int r) {
+        if (r < 0 || r > MAX_BITS) throw new IllegalArgumentException("Illegal value for r = " + r);
+        if (n + r > 64) spill();
+        buffer = (buffer << r) | (x & ((1L << r) - 1));
+        n += r;
+    }
+
+    // move the whole bytes of the accumulator to the staging buffer
+    private void spill() {
+        if (staging.remaining() < 8) flushStaging();
+        while (n >= 8) {
+            n -= 8;
+            staging.put((byte) (buffer >>> n));
+        }
+    }
+
+    // write the staging buffer to the stream
+    private void flushStaging() {
+        if (staging.position() == 0) return;
+        staging.flip();
+        written += staging.limit();
         try {
-            OutputStream os = new FileOutputStream(filename);
-            out = new BufferedOutputStream(os);
+            if (channel != null) {
+                while (staging.hasRemaining()) channel.write(staging);
+            } else {
+                out.write(staging.array(), 0, staging.limit());
+            }
         }
         catch (IOException e) {
-            e.printStackTrace();
+            fail(e);
         }
+        staging.clear();
     }
 
     /**
@@ -47,13 +111,7 @@ public final class BinaryOut {
      * @param x the bit
      */
     private void writeBit(boolean x) {
-        // add bit to buffer
-        buffer <<= 1;
-        if (x) buffer |= 1;
-
-        // if buffer is full (8 bits), write out as a single byte
-        n++;
-        if (n == 8) clearBuffer();
+        writeBits(x ? 1 : 0, 1);
     }
 
     /**
@@ -62,64 +120,87 @@ public final class BinaryOut {
      */
     private void writeByte(int x) {
         assert x >= 0 && x < 256;
-
-        // optimized if byte-aligned
-        if (n == 0) {
-            try {
-                out.write(x);
-            }
-            catch (IOException e) {
-                e.printStackTrace();
-            }
-            return;
-        }
-
-        // otherwise write one bit at a time
-        for (int i = 0; i < 8; i++) {
-            boolean bit = ((x >>> (8 - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        writeBits(x, 8);
     }
 
     // write out any remaining bits in buffer to the binary output stream, padding with 0s
     private void clearBuffer() {
-        if (n == 0) return;
-        if (n > 0) buffer <<= (8 - n);
-        try {
-            out.write(buffer);
-        }
-        catch (IOException e) {
-            e.printStackTrace();
+        spill();
+        if (n > 0) {
+            if (!staging.hasRemaining()) flushStaging();
+            staging.put((byte) (buffer << (8 - n)));
+            n = 0;
         }
-        n = 0;
         buffer = 0;
     }
 
+    // report and keep the first failure, see error()
+    private void fail(IOException e) {
+        e.printStackTrace();
+        if (error == null) error = e;
+    }
+
+    /**
+     * Returns the first failure of the underlying stream or channel; the methods of
+     * this class do not throw it, so callers that must not lose output check it after
+     * {@link #flush()} or {@link #close()}.
+     *
+     * @return the first {@code IOException}, or {@code null} if every write succeeded
+     */
+    public IOException error() {
+        return error;
+    }
+
+    /**
+     * Returns the number of whole bytes written so far; after {@link #flush()} or
+     * {@link #close()} this is the size of the output.
+     *
+     * @return the number of bytes written
+     */
+    public long bytesWritten() {
+        return written + staging.position() + n / 8;
+    }
+
     /**
      * Flushes the binary output stream, padding 0s if number of bits written so far
      * is not a multiple of 8.
      */
     public void flush() {
         clearBuffer();
+        flushStaging();
         try {
-            out.flush();
+            if (out != null) out.flush();
         }
         catch (IOException e) {
-            e.printStackTrace();
+            fail(e);
         }
     }
 
     /**
-     * Flushes and closes the binary output stream.
-     * Once it is closed, bits can no longer be written.
+     * Flushes the binary output stream and returns its buffer to the {@link BufferPool},
+     * leaving the underlying stream or channel open for its owner. Once released, bits
+     * can no longer be written and {@link #close()} does nothing.
      */
-    public void close() {
+    public void release() {
+        if (staging == CLOSED) return;
         flush();
+        BufferPool.shared().release(staging);
+        staging = CLOSED;
+    }
+
+    /**
+     * Flushes and closes the binary output stream, returning its buffer to the
+     * {@link BufferPool}. Once it is closed, bits can no longer be written.
+     */
+    public void close() {
+        if (staging == CLOSED) return;
+        release();
         try {
-            out.close();
+            if (out != null) out.close();
+            if (channel != null) channel.close();
         }
         catch (IOException e) {
-            e.printStackTrace();
+            fail(e);
         }
     }
 
@@ -140,15 +221,46 @@ public final class BinaryOut {
         writeByte(x & 0xff);
     }
 
+    /**
+     * Writes {@code len} bytes of {@code b} starting at {@code off} to the binary output stream.
+     * @param b   the bytes to write
+     * @param off offset of the first byte
+     * @param len number of bytes
+     */
+    public void write(byte[] b, int off, int len) {
+        // optimized if byte-aligned
+        if ((n & 7) == 0) {
+            spill();
+            if (len >= staging.remaining()) {
+                flushStaging();
+                written += len;
+                try {
+                    if (channel != null) {
+                        ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                        while (src.hasRemaining()) channel.write(src);
+                    } else {
+                        out.write(b, off, len);
+                    }
+                }
+                catch (IOException e) {
+                    fail(e);
+                }
+            } else {
+                staging.put(b, off, len);
+            }
+            return;
+        }
+
+        for (int i = off; i < off + len; i++)
+            writeByte(b[i] & 0xff);
+    }
+
     /**
      * Writes the 32-bit int to the binary output stream.
      * @param x the {@code int} to write
      */
     public void write(int x) {
-        writeByte((x >>> 24) & 0xff);
-        writeByte((x >>> 16) & 0xff);
-        writeByte((x >>>  8) & 0xff);
-        writeByte((x >>>  0) & 0xff);
+        writeBits(x, 32);
     }
 
     /**
@@ -164,10 +276,7 @@ public final class BinaryOut {
         }
         if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value for r = " + r);
         if (x >= (1 << r))   throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        writeBits(x, r);
     }
 
 
@@ -184,14 +293,8 @@ public final class BinaryOut {
      * @param x the {@code long} to write
      */
     public void write(long x) {
-        writeByte((int) ((x >>> 56) & 0xff));
-        writeByte((int) ((x >>> 48) & 0xff));
-        writeByte((int) ((x >>> 40) & 0xff));
-        writeByte((int) ((x >>> 32) & 0xff));
-        writeByte((int) ((x >>> 24) & 0xff));
-        writeByte((int) ((x >>> 16) & 0xff));
-        writeByte((int) ((x >>>  8) & 0xff));
-        writeByte((int) ((x >>>  0) & 0xff));
+        writeBits(x >>> 32, 32);
+        writeBits(x, 32);
     }
 
     /**
@@ -207,8 +310,7 @@ public final class BinaryOut {
      * @param x the {@code short} to write.
      */
     public void write(short x) {
-        writeByte((x >>>  8) & 0xff);
-        writeByte((x >>>  0) & 0xff);
+        writeBits(x, 16);
     }
 
     /**
@@ -234,10 +336,7 @@ public final class BinaryOut {
         }
         if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value for r = " + r);
         if (x >= (1 << r))   throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        writeBits(x, r);
     }
 
     /**
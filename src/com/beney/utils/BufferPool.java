@@ -0,0 +1,240 @@
+package com.beney.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of {@code byte[]}, {@code int[]} and heap and direct {@code ByteBuffer}s,
+ * so work on many small inputs does not allocate and zero new buffers for each.
+ * <p>
+ * Capacities are rounded up to powers of two. The pool is split into stripes picked
+ * by the id of the calling thread, so a thread mostly gets back the buffers it returned
+ * itself and threads rarely contend for a lock. Every stripe keeps at most
+ * {@value PER_CLASS} buffers of each kind and capacity, the whole pool at most
+ * {@code maxBytes}; buffers idle for longer than {@code maxIdle} are evicted as the
+ * pool is used, or at once by {@link #trim()}.
+ * <p>
+ * A borrowed buffer holds arbitrary data. It must be returned at most once and not
+ * used afterwards.
+ *
+ * @author Beney
+ */
+public final class BufferPool {
+    private static final int MIN_CLASS = 8;     // smallest pooled capacity, 2^8
+    private static final int MAX_CLASS = 24;    // largest pooled capacity, 2^24
+    private static final int CLASSES = MAX_CLASS - MIN_CLASS + 1;
+    private static final int PER_CLASS = 4;     // buffers of one kind and capacity per stripe
+
+    private static final int BYTES = 0;
+    private static final int INTS = 1;
+    private static final int HEAP = 2;
+    private static final int DIRECT = 3;
+    private static final int KINDS = 4;
+
+    private static final BufferPool SHARED = new BufferPool(
+            Math.min(64L << 20, Runtime.getRuntime().maxMemory() / 16), TimeUnit.SECONDS.toNanos(30));
+
+    private final long maxBytes;
+    private final long maxIdle;             // nanoseconds
+    private final Stripe[] stripes;
+    private final AtomicLong pooled = new AtomicLong();     // bytes held by all stripes
+
+    /**
+     * @param maxBytes most bytes of buffers kept by the pool
+     * @param maxIdle  nanoseconds a buffer may stay unused in the pool
+     */
+    public BufferPool(long maxBytes, long maxIdle) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Illegal value for maxBytes = " + maxBytes);
+        if (maxIdle < 0) throw new IllegalArgumentException("Illegal value for maxIdle = " + maxIdle);
+        this.maxBytes = maxBytes;
+        this.maxIdle = maxIdle;
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return the pool shared by {@link BinaryIn}, {@link BinaryOut} and the codecs,
+     *      holding at most 64 MB or a sixteenth of the heap
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param min least length
+     * @return an array of at least {@code min} bytes
+     */
+    public byte[] bytes(int min) {
+        int cls = sizeClass(min);
+        Object b = cls < 0 ? null : stripe().take(BYTES, cls, this);
+        return b != null ? (byte[]) b : new byte[cls < 0 ? min : 1 << (cls + MIN_CLASS)];
+    }
+
+    /**
+     * @param min least length
+     * @return an array of at least {@code min} ints
+     */
+    public int[] ints(int min) {
+        int cls = sizeClass(min);
+        Object b = cls < 0 ? null : stripe().take(INTS, cls, this);
+        return b != null ? (int[]) b : new int[cls < 0 ? min : 1 << (cls + MIN_CLASS)];
+    }
+
+    /**
+     * @param min least capacity
+     * @return a cleared heap buffer of at least {@code min} bytes, backed by an array at offset 0
+     */
+    public ByteBuffer heap(int min) {
+        int cls = sizeClass(min);
+        Object b = cls < 0 ? null : stripe().take(HEAP, cls, this);
+        return b != null ? ((ByteBuffer) b).clear() : ByteBuffer.allocate(cls < 0 ? min : 1 << (cls + MIN_CLASS));
+    }
+
+    /**
+     * @param min least capacity
+     * @return a cleared direct buffer of at least {@code min} bytes
+     */
+    public ByteBuffer direct(int min) {
+        int cls = sizeClass(min);
+        Object b = cls < 0 ? null : stripe().take(DIRECT, cls, this);
+        return b != null ? ((ByteBuffer) b).clear() : ByteBuffer.allocateDirect(cls < 0 ? min : 1 << (cls + MIN_CLASS));
+    }
+
+    /**
+     * Returns an array taken from {@link #bytes(int)}.
+     */
+    public void release(byte[] b) {
+        put(BYTES, b, b.length, b.length);
+    }
+
+    /**
+     * Returns an array taken from {@link #ints(int)}.
+     */
+    public void release(int[] b) {
+        put(INTS, b, b.length, 4L * b.length);
+    }
+
+    /**
+     * Returns a buffer taken from {@link #heap(int)} or {@link #direct(int)}.
+     */
+    public void release(ByteBuffer b) {
+        put(b.isDirect() ? DIRECT : HEAP, b, b.capacity(), b.capacity());
+    }
+
+    /**
+     * @return bytes of the buffers held by the pool
+     */
+    public long pooledBytes() {
+        return pooled.get();
+    }
+
+    /**
+     * Evicts every buffer idle for longer than {@code maxIdle}.
+     */
+    public void trim() {
+        long now = System.nanoTime();
+        for (Stripe s : stripes) {
+            s.evict(now, this);
+        }
+    }
+
+    /**
+     * Evicts every buffer.
+     */
+    public void clear() {
+        for (Stripe s : stripes) {
+            s.evict(Long.MAX_VALUE, this);
+        }
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * @return the class of capacity {@code 2^(class + MIN_CLASS)} holding {@code min},
+     *      or {@code -1} if buffers that large are not pooled
+     */
+    private static int sizeClass(int min) {
+        if (min < 0) throw new IllegalArgumentException("Illegal length = " + min);
+        int bits = min <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(min - 1);
+        return bits > MAX_CLASS ? -1 : Math.max(bits, MIN_CLASS) - MIN_CLASS;
+    }
+
+    private Stripe stripe() {
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    }
+
+    private void put(int kind, Object b, int capacity, long bytes) {
+        if (Integer.bitCount(capacity) != 1) return;
+        int bits = Integer.numberOfTrailingZeros(capacity);
+        if (bits < MIN_CLASS || bits > MAX_CLASS) return;
+        // reserve room first, so concurrent returns never take the pool past maxBytes
+        if (pooled.addAndGet(bytes) > maxBytes) {
+            pooled.addAndGet(-bytes);
+            return;
+        }
+        if (!stripe().put(kind, bits - MIN_CLASS, b, System.nanoTime(), this)) pooled.addAndGet(-bytes);
+    }
+
+    private static long bytesOf(Object b) {
+        if (b instanceof byte[]) return ((byte[]) b).length;
+        if (b instanceof int[]) return 4L * ((int[]) b).length;
+        return ((ByteBuffer) b).capacity();
+    }
+
+    /**
+     * Stacks of idle buffers, one per kind and capacity; the newest on top, so the
+     * bottom is the first to be evicted.
+     */
+    private static final class Stripe {
+        private final Object[][] items = new Object[KINDS * CLASSES][PER_CLASS];
+        private final long[][] since = new long[KINDS * CLASSES][PER_CLASS];    // time of return
+        private final int[] count = new int[KINDS * CLASSES];
+
+        synchronized Object take(int kind, int cls, BufferPool pool) {
+            int k = kind * CLASSES + cls;
+            if (count[k] == 0) return null;
+            Object b = items[k][--count[k]];
+            items[k][count[k]] = null;
+            pool.pooled.addAndGet(-bytesOf(b));
+            return b;
+        }
+
+        /**
+         * @return {@code false} if the stack is full
+         */
+        synchronized boolean put(int kind, int cls, Object b, long now, BufferPool pool) {
+            int k = kind * CLASSES + cls;
+            if (count[k] > 0 && now - since[k][0] > pool.maxIdle) drop(k, 1, pool);
+            if (count[k] == PER_CLASS) return false;
+            items[k][count[k]] = b;
+            since[k][count[k]++] = now;
+            return true;
+        }
+
+        synchronized void evict(long now, BufferPool pool) {
+            for (int k = 0; k < count.length; k++) {
+                int idle = 0;
+                while (idle < count[k] && (now == Long.MAX_VALUE || now - since[k][idle] > pool.maxIdle)) idle++;
+                if (idle > 0) drop(k, idle, pool);
+            }
+        }
+
+        // removes the m buffers at the bottom of stack k
+        private void drop(int k, int m, BufferPool pool) {
+            for (int i = 0; i < m; i++) {
+                pool.pooled.addAndGet(-bytesOf(items[k][i]));
+            }
+            int left = count[k] - m;
+            System.arraycopy(items[k], m, items[k], 0, left);
+            System.arraycopy(since[k], m, since[k], 0, left);
+            for (int i = left; i < count[k]; i++) {
+                items[k][i] = null;
+            }
+            count[k] = left;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.beney.utils;
+
+import java.util.Arrays;
+
+/**
+ * Suffix array construction by induced sorting (SA-IS, Nong, Zhang and Chan),
+ * in time linear in the length of the text.
+ * <p>
+ * A suffix that is a proper prefix of another sorts first, as if the text ended
+ * with a sentinel smaller than every symbol.
+ *
+ * @author Beney
+ */
+public final class SuffixArray {
+
+    private SuffixArray() {
+    }
+
+    /**
+     * @param s     the text, every symbol in {@code [0, upper]}
+     * @param upper largest symbol
+     * @return start of every suffix of {@code s}, in sorted order
+     */
+    public static int[] build(int[] s, int upper) {
+        for (int c : s) {
+            if (c < 0 || c > upper) throw new IllegalArgumentException("Illegal symbol = " + c);
+        }
+        return sais(s, upper);
+    }
+
+    /**
+     * @param s   holds the text
+     * @param off offset of the text in {@code s}
+     * @param len length of the text
+     * @return start of every suffix of the text relative to {@code off}, in sorted order,
+     * bytes compared unsigned
+     */
+    public static int[] build(byte[] s, int off, int len) {
+        int[] t = new int[len];
+        for (int i = 0; i < len; i++) {
+            t[i] = s[off + i] & 0xff;
+        }
+        return sais(t, 255);
+    }
+
+    //**************************** private methods ********************************//
+
+    private static int[] sais(int[] s, int upper) {
+        int n = s.length;
+        if (n == 0) return new int[0];
+        if (n == 1) return new int[]{0};
+        if (n == 2) return s[0] < s[1] ? new int[]{0, 1} : new int[]{1, 0};
+
+        // ls[i]: suffix i is smaller than suffix i + 1 (S-type), else L-type
+        boolean[] ls = new boolean[n];
+        for (int i = n - 2; i >= 0; i--) {
+            ls[i] = s[i] == s[i + 1] ? ls[i + 1] : s[i] < s[i + 1];
+        }
+        // sumL[c]: start of the bucket of c, sumS[c]: start of the S-type part of that bucket
+        int[] sumL = new int[upper + 1], sumS = new int[upper + 1];
+        for (int i = 0; i < n; i++) {
+            if (!ls[i]) sumS[s[i]]++;
+            else sumL[s[i] + 1]++;
+        }
+        for (int c = 0; c <= upper; c++) {
+            sumS[c] += sumL[c];
+            if (c < upper) sumL[c + 1] += sumS[c];
+        }
+
+        // the LMS positions: S-type with an L-type on their left
+        int[] lmsMap = new int[n + 1];
+        Arrays.fill(lmsMap, -1);
+        int m = 0;
+        for (int i = 1; i < n; i++) {
+            if (!ls[i - 1] && ls[i]) lmsMap[i] = m++;
+        }
+        int[] lms = new int[m];
+        for (int i = 1, k = 0; i < n; i++) {
+            if (!ls[i - 1] && ls[i]) lms[k++] = i;
+        }
+
+        int[] sa = new int[n];
+        int[] buf = new int[upper + 1];
+        induce(s, upper, ls, sumL, sumS, lms, sa, buf);
+
+        if (m > 0) {
+            // name the LMS substrings in sorted order, equal substrings getting equal names
+            int[] sorted = new int[m];
+            int k = 0;
+            for (int v : sa) {
+                if (lmsMap[v] != -1) sorted[k++] = v;
+            }
+            int[] rec = new int[m];
+            int recUpper = 0;
+            rec[lmsMap[sorted[0]]] = 0;
+            for (int i = 1; i < m; i++) {
+                int l = sorted[i - 1], r = sorted[i];
+                int endL = lmsMap[l] + 1 < m ? lms[lmsMap[l] + 1] : n;
+                int endR = lmsMap[r] + 1 < m ? lms[lmsMap[r] + 1] : n;
+                boolean same = true;
+                if (endL - l != endR - r) {
+                    same = false;
+                } else {
+                    while (l < endL && s[l] == s[r]) {
+                        l++;
+                        r++;
+                    }
+                    if (l == n || s[l] != s[r]) same = false;
+                }
+                if (!same) recUpper++;
+                rec[lmsMap[sorted[i]]] = recUpper;
+            }
+            // sort the LMS suffixes by sorting the text of their names
+            int[] recSa = sais(rec, recUpper);
+            for (int i = 0; i < m; i++) {
+                sorted[i] = lms[recSa[i]];
+            }
+            induce(s, upper, ls, sumL, sumS, sorted, sa, buf);
+        }
+        return sa;
+    }
+
+    /**
+     * Places the LMS suffixes at the ends of their buckets, then induces the order of
+     * the L-type suffixes from left to right and of the S-type ones from right to left.
+     */
+    private static void induce(int[] s, int upper, boolean[] ls, int[] sumL, int[] sumS,
+                               int[] lms, int[] sa, int[] buf) {
+        int n = s.length;
+        Arrays.fill(sa, -1);
+        System.arraycopy(sumS, 0, buf, 0, upper + 1);
+        for (int d : lms) {
+            if (d != n) sa[buf[s[d]]++] = d;
+        }
+        System.arraycopy(sumL, 0, buf, 0, upper + 1);
+        sa[buf[s[n - 1]]++] = n - 1;
+        for (int i = 0; i < n; i++) {
+            int v = sa[i];
+            if (v >= 1 && !ls[v - 1]) sa[buf[s[v - 1]]++] = v - 1;
+        }
+        System.arraycopy(sumL, 0, buf, 0, upper + 1);
+        for (int i = n - 1; i >= 0; i--) {
+            int v = sa[i];
+            if (v >= 1 && ls[v - 1]) sa[--buf[s[v - 1] + 1]] = v - 1;   // S-type symbols are below upper
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package com.beney.zip;
+
+import com.beney.utils.BinaryOut;
+import com.beney.utils.BufferPool;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Packs a directory tree into one archive file. The files are compressed concurrently,
+ * each as an independent entry, and listed in a central directory at the end of the
+ * archive, so a single entry is read with one seek and a full extraction decodes the
+ * entries in parallel.
+ * <p>
+ * Archive file:
+ * <pre>
+ *     a version byte
+ *     the entries, each in the format of {@link CompressingOutputStream}, or the raw
+ *         bytes for entries that did not shrink
+ *     the central directory: int entry count, then per entry
+ *         short length of the name, the name in UTF-8 with '/' separators,
+ *         byte codec, long offset, long original size, long compressed size
+ *     long offset of the central directory
+ * </pre>
+ * Files up to {@value STREAM_ABOVE} bytes are read whole while they are compressed, so
+ * at most about {@code 2 * threads} of them are in memory at once. Larger files are
+ * streamed through the codec block by block when their turn comes to be written, and
+ * are kept compressed even if that does not shrink them; extracting streams them too.
+ * Only regular files are archived, so empty directories are not restored.
+ *
+ * @author Beney
+ */
+public class ArchiveZip {
+    private static final String SUFFIX = ".arc";
+    private static final int VERSION = 1;
+    private static final int STREAM_ABOVE = 1 << 26;    // files larger than 64 MB are streamed
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Codec of an entry, recorded in the central directory.
+     */
+    public enum Codec {
+        STORED, HUFFMAN, LZW, LZ77, RANS, CONTEXT_HUFFMAN, BWT, AUTO;
+
+        BlockCodec create() {
+            switch (this) {
+                case HUFFMAN:
+                    return new HuffmanZip(true);
+                case LZW:
+                    return new LZWZip(16);
+                case LZ77:
+                    return new LZ77Zip();
+                case RANS:
+                    return new RansZip();
+                case CONTEXT_HUFFMAN:
+                    return new ContextHuffmanZip();
+                case BWT:
+                    return new BwtZip();
+                case AUTO:
+                    return new AutoZip();
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * An entry of the central directory
+     */
+    public static final class Entry {
+        private final String name;
+        private final Codec codec;
+        private final long offset;
+        private final long size;
+        private final long compressedSize;
+
+        Entry(String name, Codec codec, long offset, long size, long compressedSize) {
+            this.name = name;
+            this.codec = codec;
+            this.offset = offset;
+            this.size = size;
+            this.compressedSize = compressedSize;
+        }
+
+        /**
+         * @return path of the file relative to the archived directory, with '/' separators
+         */
+        public String name() {
+            return name;
+        }
+
+        public Codec codec() {
+            return codec;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long compressedSize() {
+            return compressedSize;
+        }
+    }
+
+    private final Codec codec;
+    private final BlockCodec[] codecs = new BlockCodec[Codec.values().length];
+    private final ExecutorService executor;
+    private final int window;       // most entries in memory at once while compressing
+
+    private volatile CompressionListener listener;
+
+    /**
+     * Archive compressing its entries with {@link LZ77Zip}.
+     */
+    public ArchiveZip() {
+        this(Codec.LZ77);
+    }
+
+    /**
+     * @param codec codec of the entries
+     */
+    public ArchiveZip(Codec codec) {
+        this(codec, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param codec    codec of the entries
+     * @param executor runs the entry tasks
+     */
+    public ArchiveZip(Codec codec, ExecutorService executor) {
+        this.codec = codec;
+        this.executor = executor;
+        for (Codec c : Codec.values()) {
+            codecs[c.ordinal()] = c.create();
+        }
+        int threads = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.window = 2 * threads;
+    }
+
+    /**
+     * Archives the directory tree, or the single file, at {@code path} into
+     * {@code path + }{@value SUFFIX}.
+     */
+    public void compress(String path) {
+        Recorder rec = new Recorder();
+        Path root = Paths.get(path).toAbsolutePath().normalize();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Path base = Files.isDirectory(root) ? root : root.getParent();
+        rec.lap(Phase.IO);
+
+        BinaryOut out = new BinaryOut(path + SUFFIX);
+        Queue<Future<Packed>> pending = new ArrayDeque<>();
+        List<Entry> entries = new ArrayList<>();
+        long offset = 1;
+        boolean done = false;
+        try {
+            out.write(VERSION, 8);
+            for (Path file : files) {
+                String name = base.relativize(file).toString().replace(File.separatorChar, '/');
+                pending.add(executor.submit(() -> pack(name, file)));
+                if (pending.size() >= window) offset = writeEntry(pending.remove().get(), offset, out, entries);
+            }
+            while (!pending.isEmpty()) {
+                offset = writeEntry(pending.remove().get(), offset, out, entries);
+            }
+            rec.lap(Phase.CODE);
+            writeDirectory(entries, offset, out);
+            rec.lap(Phase.HEADER);
+            done = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            for (Future<Packed> f : pending) {
+                f.cancel(true);
+            }
+            out.close();
+            // an archive without its central directory cannot be read, remove it
+            if (!done || out.error() != null) deleteQuietly(Paths.get(path + SUFFIX));
+        }
+        if (out.error() != null) return;    // printed by BinaryOut
+        rec.lap(Phase.IO);
+        for (Entry e : entries) {
+            rec.bytesIn += e.size;
+        }
+        rec.bytesOut = out.bytesWritten();
+        rec.publish(listener, name(), Operation.COMPRESS);
+    }
+
+    /**
+     * Extracts every entry, in parallel, into the directory named like the archive
+     * without {@value SUFFIX}.
+     */
+    public void expand(String filePath) {
+        Recorder rec = new Recorder();
+        Path dir = Paths.get(filePath.substring(0, filePath.length() - SUFFIX.length())).toAbsolutePath().normalize();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            List<Entry> entries = readDirectory(channel);
+            rec.lap(Phase.HEADER);
+            // check every name before writing anything
+            List<Path> targets = new ArrayList<>(entries.size());
+            for (Entry e : entries) {
+                Path target = dir.resolve(e.name).normalize();
+                if (!target.startsWith(dir) || target.equals(dir))
+                    throw new IllegalArgumentException("Entry outside the archive directory: " + e.name);
+                targets.add(target);
+            }
+            List<Future<?>> tasks = new ArrayList<>();
+            try {
+                for (int i = 0; i < entries.size(); i++) {
+                    Entry e = entries.get(i);
+                    Path target = targets.get(i);
+                    tasks.add(executor.submit(() -> {
+                        Files.createDirectories(target.getParent());
+                        if (e.size > STREAM_ABOVE) extractTo(channel, e, target);
+                        else Files.write(target, read(channel, e));
+                        return null;
+                    }));
+                }
+                for (Future<?> t : tasks) {
+                    t.get();
+                }
+            } finally {
+                for (Future<?> t : tasks) {
+                    t.cancel(true);
+                }
+            }
+            rec.lap(Phase.CODE);
+            for (Entry e : entries) {
+                rec.bytesOut += e.size;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        rec.bytesIn = new File(filePath).length();
+        rec.publish(listener, name(), Operation.EXPAND);
+    }
+
+    /**
+     * @param filePath path of the archive
+     * @return the entries of the central directory, in archive order
+     */
+    public List<Entry> list(String filePath) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return Collections.unmodifiableList(readDirectory(channel));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads one entry, seeking to it by the central directory.
+     *
+     * @param filePath path of the archive
+     * @param name     name of the entry, see {@link Entry#name()}
+     * @return the original bytes of the entry
+     * @throws IllegalArgumentException if the archive has no such entry
+     */
+    public byte[] extract(String filePath, String name) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            for (Entry e : readDirectory(channel)) {
+                if (e.name.equals(name)) return read(channel, e);
+            }
+            throw new IllegalArgumentException("No entry " + name + " in " + filePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Publishes one {@link CompressionStats} per archive; the stats of every block
+     * go to the listener too, published by the codec of its entry.
+     */
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+        for (BlockCodec c : codecs) {
+            if (c != null) c.setListener(listener);
+        }
+    }
+
+    public String fileSuffix() {
+        return SUFFIX;
+    }
+
+    /**
+     * An entry compressed and waiting to be written
+     */
+    private static class Packed {
+        private final String name;
+        private final Codec codec;
+        private final long size;
+        private final byte[] data;      // null for a file streamed when it is written
+        private final Path file;
+
+        Packed(String name, Codec codec, long size, byte[] data) {
+            this(name, codec, size, data, null);
+        }
+
+        Packed(String name, Codec codec, long size, byte[] data, Path file) {
+            this.name = name;
+            this.codec = codec;
+            this.size = size;
+            this.data = data;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Bytes {@code [position, end)} of a channel, read with positional reads so several
+     * can be open on one channel at once
+     */
+    private static class Region extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        Region(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int k = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (k < 0) throw new EOFException("Unexpected end of archive");
+            position += k;
+            return k;
+        }
+    }
+
+    //**************************** private methods ********************************//
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Compresses one file, storing it as it is if that is not smaller.
+     */
+    private Packed pack(String name, Path file) throws IOException {
+        long size = Files.size(file);
+        if (size > STREAM_ABOVE) return new Packed(name, codec, size, null, file);
+        byte[] raw = Files.readAllBytes(file);
+        if (codec != Codec.STORED) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length / 2 + 16);
+            int block = Math.max(1, Math.min(raw.length, CompressingOutputStream.DEFAULT_BLOCK));
+            CompressingOutputStream.transfer(new ByteArrayInputStream(raw), bytes, codecs[codec.ordinal()], block);
+            if (bytes.size() < raw.length) return new Packed(name, codec, raw.length, bytes.toByteArray());
+        }
+        return new Packed(name, Codec.STORED, raw.length, raw);
+    }
+
+    /**
+     * @return offset of the next entry
+     */
+    private long writeEntry(Packed p, long offset, BinaryOut out, List<Entry> entries) throws IOException {
+        if (p.data == null) return streamEntry(p, offset, out, entries);
+        out.write(p.data, 0, p.data.length);
+        entries.add(new Entry(p.name, p.codec, offset, p.size, p.data.length));
+        return offset + p.data.length;
+    }
+
+    /**
+     * Compresses a large file straight into the archive, block by block.
+     *
+     * @return offset of the next entry
+     */
+    private long streamEntry(Packed p, long offset, BinaryOut out, List<Entry> entries) throws IOException {
+        long start = out.bytesWritten();
+        OutputStream os = new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.write((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                out.write(b, off, len);
+            }
+        };
+        long size = 0;
+        byte[] buf = BufferPool.shared().bytes(BUFFER);
+        try (InputStream is = new FileInputStream(p.file.toFile())) {
+            CompressingOutputStream cos = p.codec == Codec.STORED ? null
+                    : new CompressingOutputStream(os, codecs[p.codec.ordinal()]);
+            for (int k; (k = is.read(buf)) != -1; size += k) {
+                if (cos == null) os.write(buf, 0, k);
+                else cos.write(buf, 0, k);
+            }
+            if (cos != null) cos.finish();
+        } finally {
+            BufferPool.shared().release(buf);
+        }
+        IOException failed = out.error();
+        if (failed != null) throw failed;
+        long length = out.bytesWritten() - start;
+        entries.add(new Entry(p.name, p.codec, offset, size, length));
+        return offset + length;
+    }
+
+    /**
+     * Decodes a large entry straight into {@code target}, block by block.
+     */
+    private void extractTo(FileChannel channel, Entry e, Path target) throws IOException {
+        InputStream in = new BufferedInputStream(new Region(channel, e.offset, e.compressedSize), BUFFER);
+        if (e.codec != Codec.STORED) in = new DecompressingInputStream(in, codecs[e.codec.ordinal()]);
+        long n;
+        try (InputStream is = in; OutputStream os = Files.newOutputStream(target)) {
+            n = is.transferTo(os);
+        }
+        if (n != e.size) throw new IllegalArgumentException("Size of entry " + e.name + " does not match the directory");
+    }
+
+    private static void writeDirectory(List<Entry> entries, long offset, BinaryOut out) {
+        out.write(entries.size());
+        for (Entry e : entries) {
+            byte[] name = e.name.getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xffff) throw new IllegalArgumentException("Name too long: " + e.name);
+            out.write(name.length, 16);
+            out.write(name, 0, name.length);
+            out.write(e.codec.ordinal(), 8);
+            out.write(e.offset);
+            out.write(e.size);
+            out.write(e.compressedSize);
+        }
+        out.write(offset);
+    }
+
+    private static List<Entry> readDirectory(FileChannel channel) throws IOException {
+        int version = ParallelZip.readFully(channel, 0, 1).get() & 0xff;
+        if (version != VERSION) throw new IllegalArgumentException("Illegal version = " + version);
+        long end = channel.size() - 8;
+        long offset = ParallelZip.readFully(channel, end, 8).getLong();
+        if (offset < 1 || offset > end) throw new IllegalArgumentException("Illegal directory offset = " + offset);
+        ByteBuffer dir = ParallelZip.readFully(channel, offset, (int) (end - offset));
+        int count = dir.getInt();
+        Codec[] codecs = Codec.values();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[dir.getShort() & 0xffff];
+            dir.get(name);
+            int codec = dir.get() & 0xff;
+            if (codec >= codecs.length) throw new IllegalArgumentException("Illegal codec = " + codec);
+            entries.add(new Entry(new String(name, StandardCharsets.UTF_8), codecs[codec],
+                    dir.getLong(), dir.getLong(), dir.getLong()));
+        }
+        return entries;
+    }
+
+    /**
+     * Reads and decodes one entry with a positional read, safe to run concurrently.
+     */
+    private byte[] read(FileChannel channel, Entry e) throws IOException {
+        if (e.size > Integer.MAX_VALUE || e.compressedSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Entry too large: " + e.name);
+        byte[] data = ParallelZip.readFully(channel, e.offset, (int) e.compressedSize).array();
+        if (e.codec == Codec.STORED) return data;
+        byte[] raw = new byte[(int) e.size];
+        try (InputStream in = new DecompressingInputStream(new ByteArrayInputStream(data), codecs[e.codec.ordinal()])) {
+            int n = 0;
+            for (int k; n < raw.length && (k = in.read(raw, n, raw.length - n)) != -1; ) {
+                n += k;
+            }
+            if (n < raw.length || in.read() != -1)
+                throw new IllegalArgumentException("Size of entry " + e.name + " does not match the directory");
+        }
+        return raw;
+    }
+
+    private String name() {
+        return "ArchiveZip(" + codec + ")";
+    }
+}
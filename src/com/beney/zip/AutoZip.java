@@ -0,0 +1,193 @@
+package com.beney.zip;
+
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Picks a codec for every block by sampling it: an order-0 entropy estimate from a
+ * byte histogram predicts the Huffman size, and compressing a few slices with LZW
+ * predicts the LZW size. Blocks neither codec would shrink are stored as they are.
+ * <p>
+ * A compressed block is a header byte naming the codec, then that codec's output.
+ * Files and streams are cut into blocks as by {@link CompressingOutputStream}.
+ *
+ * @author Beney
+ */
+public class AutoZip implements BlockCodec {
+    private static final String SUFFIX = ".auto";
+    private static final int BUFFER = 1 << 16;
+
+    private static final int STORED = 0;
+    private static final int HUFFMAN = 1;
+    private static final int LZW = 2;
+
+    private static final int SLICES = 4;            // LZW probes per block
+    private static final int SLICE = 1 << 12;       // bytes per LZW probe
+    private static final int HISTOGRAM_STRIDE = 7;  // sample every 7th byte of large blocks
+    private static final double STORE_ABOVE = 0.97; // store blocks predicted to keep more than this
+
+    private final HuffmanZip huffman = new HuffmanZip(true);
+    private final LZWZip lzw = new LZWZip(16);
+    private final LZWZip probe = new LZWZip(16);    // never has a listener
+    private final HuffmanZip huffmanProbe = new HuffmanZip(true);   // never has a listener
+
+    private volatile CompressionListener listener;
+
+    @Override
+    public void compress(String filePath) {
+        try (InputStream is = new FileInputStream(filePath);
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(filePath + SUFFIX), BUFFER)) {
+            compress(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void expand(String filePath) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(filePath), BUFFER);
+             OutputStream os = new FileOutputStream(filePath.substring(0, filePath.length() - SUFFIX.length()))) {
+            expand(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public byte[] compressBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        int choice = choose(src, off, len);
+        rec.lap(Phase.HISTOGRAM);
+        // the attempts run on instances without a listener, so every block is published once, below
+        byte[] data = null;
+        if (choice == HUFFMAN) data = huffmanProbe.compressBlock(src, off, len);
+        else if (choice == LZW) data = probe.compressBlock(src, off, len);
+        if (data == null || data.length >= len) {
+            // stored, also when the prediction was too optimistic
+            data = Arrays.copyOfRange(src, off, off + len);
+            choice = STORED;
+        }
+        byte[] block = new byte[data.length + 1];
+        block[0] = (byte) choice;
+        System.arraycopy(data, 0, block, 1, data.length);
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = block.length;
+        rec.publish(listener, "AutoZip(" + (choice == HUFFMAN ? "huffman" : choice == LZW ? "lzw" : "stored") + ")",
+                Operation.COMPRESS);
+        return block;
+    }
+
+    @Override
+    public long expandedLength(byte[] src, int off, int len) {
+        if (len < 1) throw new IllegalArgumentException("Missing codec header");
+        int choice = src[off];
+        switch (choice) {
+            case STORED:
+                return len - 1;
+            case HUFFMAN:
+                return huffman.expandedLength(src, off + 1, len - 1);
+            case LZW:
+                return lzw.expandedLength(src, off + 1, len - 1);
+            default:
+                throw new IllegalArgumentException("Illegal codec = " + choice);
+        }
+    }
+
+    @Override
+    public byte[] expandBlock(byte[] src, int off, int len) {
+        if (len < 1) throw new IllegalArgumentException("Missing codec header");
+        int choice = src[off];
+        switch (choice) {
+            case STORED:
+                Recorder rec = new Recorder();
+                byte[] block = Arrays.copyOfRange(src, off + 1, off + len);
+                rec.lap(Phase.CODE);
+                rec.bytesIn = len;
+                rec.bytesOut = block.length;
+                rec.publish(listener, "AutoZip(stored)", Operation.EXPAND);
+                return block;
+            case HUFFMAN:
+                return huffman.expandBlock(src, off + 1, len - 1);
+            case LZW:
+                return lzw.expandBlock(src, off + 1, len - 1);
+            default:
+                throw new IllegalArgumentException("Illegal codec = " + choice);
+        }
+    }
+
+    /**
+     * Every compressed block is published once, as {@code AutoZip(huffman)},
+     * {@code AutoZip(lzw)} or {@code AutoZip(stored)}, the sampling counted as its
+     * histogram phase. Expanded blocks are published as {@code AutoZip(stored)} or by
+     * the Huffman or LZW codec that decoded them.
+     */
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+        huffman.setListener(listener);
+        lzw.setListener(listener);
+    }
+
+    @Override
+    public String fileSuffix() {
+        return SUFFIX;
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * @return the codec predicted to give the smallest output
+     */
+    private int choose(byte[] src, int off, int len) {
+        if (len == 0) return STORED;
+        double huffmanRatio = entropy(src, off, len) / 8;
+        double lzwRatio = probe(src, off, len);
+        double best = Math.min(huffmanRatio, lzwRatio);
+        if (best > STORE_ABOVE) return STORED;
+        return huffmanRatio <= lzwRatio ? HUFFMAN : LZW;
+    }
+
+    /**
+     * @return order-0 entropy in bits per byte, from a histogram of a sample of the block
+     */
+    private static double entropy(byte[] src, int off, int len) {
+        int stride = len > BUFFER ? HISTOGRAM_STRIDE : 1;
+        int[] freq = new int[256];
+        int n = 0;
+        for (int i = off; i < off + len; i += stride) {
+            freq[src[i] & 0xff]++;
+            n++;
+        }
+        double h = 0;
+        for (int f : freq) {
+            if (f > 0) h -= f * Math.log((double) f / n);
+        }
+        return h / n / Math.log(2);
+    }
+
+    /**
+     * @return compressed size over raw size of a few evenly spread slices, each compressed by LZW
+     */
+    private double probe(byte[] src, int off, int len) {
+        int slice = Math.min(SLICE, len);
+        int slices = Math.min(SLICES, len / slice);
+        long raw = 0, compressed = 0;
+        for (int i = 0; i < slices; i++) {
+            int from = off + (int) ((long) (len - slice) * i / Math.max(1, slices - 1));
+            compressed += probe.compressBlock(src, from, slice).length;
+            raw += slice;
+        }
+        return (double) compressed / raw;
+    }
+}
@@ -0,0 +1,417 @@
+package com.beney.zip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Compresses or expands every file of a directory tree, each file on its own thread,
+ * so the time spent opening, reading, writing and closing files overlaps with the
+ * encoding of others.
+ * <p>
+ * Three limits keep the work bounded:
+ * <ul>
+ *     <li>at most {@link Options#files(int)} files are in flight; the walk of the tree
+ *     waits for a free slot, so pending files never pile up in memory</li>
+ *     <li>at most {@link Options#encoders(int)} files are encoded at once, by default one
+ *     per core, however many threads are waiting on I/O</li>
+ *     <li>at most {@link Options#memory(long)} bytes of file contents are held at once;
+ *     files above an eighth of it, or above 1 GB, are streamed through the codec instead
+ *     of read whole. Only inputs are held: the codec writes its output straight to the
+ *     target file</li>
+ * </ul>
+ * The threads are virtual threads when the runtime has them (Java 21 and later), and
+ * a cached pool of platform threads otherwise, which the limit on files in flight bounds.
+ * <p>
+ * Every file goes through the stream methods of the codec, so the outputs are read back
+ * by {@link #expandAll(Path, MyZip, Options)} or {@link MyZip#expand(InputStream, OutputStream)},
+ * not by {@link MyZip#expand(String)}. A failing file, including one the codec runs out of
+ * memory or stack on, is recorded in the {@link Report}, its partial output deleted, and the
+ * other files go on.
+ *
+ * @author Beney
+ */
+public final class BatchZip {
+    private static final int BUFFER = 1 << 16;
+    private static final int MAX_BUFFERED = Integer.MAX_VALUE / 2;     // largest file read whole
+
+    /**
+     * Limits of a batch, see the class comment.
+     */
+    public static final class Options {
+        private int files = 256;
+        private int encoders = Runtime.getRuntime().availableProcessors();
+        private long memory = 256L << 20;
+
+        /**
+         * @param files most files in flight, default 256
+         * @return these options
+         */
+        public Options files(int files) {
+            if (files < 1) throw new IllegalArgumentException("Illegal value for files = " + files);
+            this.files = files;
+            return this;
+        }
+
+        /**
+         * @param encoders most files encoded at once, default the number of cores
+         * @return these options
+         */
+        public Options encoders(int encoders) {
+            if (encoders < 1) throw new IllegalArgumentException("Illegal value for encoders = " + encoders);
+            this.encoders = encoders;
+            return this;
+        }
+
+        /**
+         * @param memory most bytes of file contents held at once, default 256 MB
+         * @return these options
+         */
+        public Options memory(long memory) {
+            if (memory < 1 << 10) throw new IllegalArgumentException("Illegal value for memory = " + memory);
+            this.memory = memory;
+            return this;
+        }
+    }
+
+    /**
+     * A file that could not be processed
+     */
+    public static final class Failure {
+        private final Path path;
+        private final Throwable error;
+
+        Failure(Path path, Throwable error) {
+            this.path = path;
+            this.error = error;
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        public Throwable error() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + error;
+        }
+    }
+
+    /**
+     * Totals of a batch
+     */
+    public static final class Report {
+        private final int files;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long nanos;
+        private final long encodeNanos;
+        private final List<Failure> failures;
+
+        Report(int files, long bytesIn, long bytesOut, long nanos, long encodeNanos, List<Failure> failures) {
+            this.files = files;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.nanos = nanos;
+            this.encodeNanos = encodeNanos;
+            this.failures = failures;
+        }
+
+        /**
+         * @return files processed successfully
+         */
+        public int files() {
+            return files;
+        }
+
+        /**
+         * @return bytes read from the processed files
+         */
+        public long bytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return bytes written to their outputs
+         */
+        public long bytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * @return wall-clock time of the batch
+         */
+        public long nanos() {
+            return nanos;
+        }
+
+        /**
+         * @return time spent in the codec, summed over all files
+         */
+        public long encodeNanos() {
+            return encodeNanos;
+        }
+
+        /**
+         * @return megabytes read per second of wall-clock time
+         */
+        public double throughput() {
+            return nanos == 0 ? 0 : bytesIn * 1e3 / nanos;
+        }
+
+        /**
+         * @return files processed per second of wall-clock time
+         */
+        public double filesPerSecond() {
+            return nanos == 0 ? 0 : files * 1e9 / nanos;
+        }
+
+        public List<Failure> failures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d failed, %d -> %d bytes in %.1f ms: %.1f MB/s, %.0f files/s, encoding %.1f ms",
+                    files, failures.size(), bytesIn, bytesOut, nanos / 1e6, throughput(), filesPerSecond(), encodeNanos / 1e6);
+        }
+    }
+
+    private final Supplier<? extends MyZip> codec;
+    private final boolean compress;
+    private final String suffix;
+    private final Options options;
+    private final long bufferedLimit;   // largest file read whole
+    private final Semaphore inFlight;
+    private final Semaphore encoders;
+    private final Semaphore memory;     // in KB
+    private final AtomicInteger files = new AtomicInteger();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+    private BatchZip(Supplier<? extends MyZip> codec, boolean compress, Options options) {
+        this.codec = codec;
+        this.compress = compress;
+        this.suffix = codec.get().fileSuffix();
+        this.options = options;
+        bufferedLimit = Math.min(options.memory / 8, MAX_BUFFERED);
+        inFlight = new Semaphore(options.files);
+        encoders = new Semaphore(options.encoders);
+        memory = new Semaphore((int) Math.min(Integer.MAX_VALUE, options.memory >>> 10));
+    }
+
+    /**
+     * Compresses every regular file under {@code dir} into the file named with the suffix
+     * of the codec added, skipping the files that already carry it.
+     *
+     * @param codec its stream methods are called from several threads at once, as the
+     *              {@link BlockCodec}s allow
+     */
+    public static Report compressAll(Path dir, MyZip codec, Options options) {
+        return compressAll(dir, () -> codec, options);
+    }
+
+    /**
+     * {@link #compressAll(Path, MyZip, Options)} for codecs whose stream methods do not
+     * allow concurrent calls, such as {@link ParallelZip}.
+     *
+     * @param codec gives the codec of every file
+     */
+    public static Report compressAll(Path dir, Supplier<? extends MyZip> codec, Options options) {
+        return new BatchZip(codec, true, options).run(dir);
+    }
+
+    /**
+     * Expands every file under {@code dir} carrying the suffix of the codec, written by
+     * {@link #compressAll(Path, MyZip, Options)}, into the file named without it.
+     */
+    public static Report expandAll(Path dir, MyZip codec, Options options) {
+        return expandAll(dir, () -> codec, options);
+    }
+
+    /**
+     * @param codec gives the codec of every file
+     * @see #expandAll(Path, MyZip, Options)
+     */
+    public static Report expandAll(Path dir, Supplier<? extends MyZip> codec, Options options) {
+        return new BatchZip(codec, false, options).run(dir);
+    }
+
+    //**************************** private methods ********************************//
+
+    private Report run(Path dir) {
+        long start = System.nanoTime();
+        ExecutorService executor = newExecutor();
+        boolean interrupted = false;
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile() || !wanted(file.getFileName().toString())) return FileVisitResult.CONTINUE;
+                    try {
+                        inFlight.acquire();     // back-pressure on the walk
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    executor.execute(() -> {
+                        try {
+                            process(file, attrs.size());
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    failures.add(new Failure(file, e));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (InterruptedIOException e) {
+            interrupted = true;
+        } catch (IOException e) {
+            failures.add(new Failure(dir, e));
+        }
+        if (interrupted) {
+            executor.shutdownNow();
+        } else {
+            executor.shutdown();
+        }
+        try {
+            // every file releases its slot when done
+            inFlight.acquire(options.files);
+            inFlight.release(options.files);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            interrupted = true;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        List<Failure> failed = new ArrayList<>(failures);
+        return new Report(files.get(), bytesIn.sum(), bytesOut.sum(), System.nanoTime() - start,
+                encodeNanos.sum(), Collections.unmodifiableList(failed));
+    }
+
+    /**
+     * @return {@code true} for the files to compress, those without the suffix, or
+     *      to expand, those with it
+     */
+    private boolean wanted(String name) {
+        boolean compressed = name.endsWith(suffix) && name.length() > suffix.length();
+        return compress != compressed;
+    }
+
+    /**
+     * Compresses or expands one file, recording rather than throwing its failure.
+     */
+    private void process(Path file, long size) {
+        String name = file.getFileName().toString();
+        Path target = file.resolveSibling(compress ? name + suffix : name.substring(0, name.length() - suffix.length()));
+        try {
+            long written = size <= bufferedLimit ? buffered(file, size, target) : streamed(file, target);
+            files.incrementAndGet();
+            bytesIn.add(size);
+            bytesOut.add(written);
+        } catch (Exception | OutOfMemoryError | StackOverflowError e) {
+            failures.add(new Failure(file, e));
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException ignored) {
+                // the failure of the file is already recorded
+            }
+        }
+    }
+
+    /**
+     * Reads the file whole before taking an encoder slot, so the reads of waiting files
+     * overlap with the encoding of others, then encodes it straight into the target.
+     * Only the input counts against the memory budget, since the output is never held
+     * whole: an expanded file may be far larger than the budget.
+     *
+     * @return bytes written
+     */
+    private long buffered(Path file, long size, Path target) throws IOException, InterruptedException {
+        int kb = (int) Math.max(1, (size + 1023) >>> 10);
+        memory.acquire(kb);
+        try {
+            byte[] raw = Files.readAllBytes(file);
+            encoders.acquire();
+            long t = System.nanoTime();
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(target), BUFFER)) {
+                if (compress) codec.get().compress(new ByteArrayInputStream(raw), os);
+                else codec.get().expand(new ByteArrayInputStream(raw), os);
+            } finally {
+                encodeNanos.add(System.nanoTime() - t);
+                encoders.release();
+            }
+        } finally {
+            memory.release(kb);
+        }
+        return Files.size(target);
+    }
+
+    /**
+     * Runs the codec straight from the file to the target, for files too large to hold;
+     * the encoder slot is held while the file is read.
+     *
+     * @return bytes written
+     */
+    private long streamed(Path file, Path target) throws IOException, InterruptedException {
+        encoders.acquire();
+        long t = System.nanoTime();
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file), BUFFER);
+             OutputStream os = new BufferedOutputStream(Files.newOutputStream(target), BUFFER)) {
+            if (compress) codec.get().compress(is, os);
+            else codec.get().expand(is, os);
+        } finally {
+            encodeNanos.add(System.nanoTime() - t);
+            encoders.release();
+        }
+        return Files.size(target);
+    }
+
+    /**
+     * @return a virtual thread per task where the runtime has them, found by reflection
+     *      since the code targets Java 11, or else a cached pool of daemon threads
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "batch-zip-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.beney.zip;
+
+import com.beney.utils.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link MyZip} that can also compress independent in-memory blocks.
+ * The block methods keep no state in the codec, so one instance may be
+ * used from several threads at once.
+ * <p>
+ * Streams are compressed block by block in the format of {@link CompressingOutputStream}.
+ *
+ * @author Beney
+ */
+public interface BlockCodec extends MyZip {
+    /**
+     * compress a block
+     *
+     * @param src input bytes
+     * @param off offset of the block in {@code src}
+     * @param len length of the block
+     * @return the compressed block
+     */
+    byte[] compressBlock(byte[] src, int off, int len);
+
+    /**
+     * uncompress a block produced by {@link #compressBlock(byte[], int, int)}
+     *
+     * @param src compressed bytes
+     * @param off offset of the compressed block in {@code src}
+     * @param len length of the compressed block
+     * @return the original block
+     */
+    byte[] expandBlock(byte[] src, int off, int len);
+
+    /**
+     * read the original length declared in the header of a block produced by
+     * {@link #compressBlock(byte[], int, int)}, without decoding the block, so a caller
+     * can refuse blocks too large to expand
+     *
+     * @param src compressed bytes
+     * @param off offset of the compressed block in {@code src}
+     * @param len length of the compressed block
+     * @return the original length, or {@code -1} if the format does not declare it up front
+     */
+    default long expandedLength(byte[] src, int off, int len) {
+        return -1;
+    }
+
+    /**
+     * compress {@code in} one block at a time, see {@link CompressingOutputStream}
+     */
+    @Override
+    default void compress(InputStream in, OutputStream out) throws IOException {
+        CompressingOutputStream.transfer(in, out, this, CompressingOutputStream.DEFAULT_BLOCK);
+    }
+
+    /**
+     * uncompress {@code in} one block at a time, see {@link DecompressingInputStream}
+     */
+    @Override
+    default void expand(InputStream in, OutputStream out) throws IOException {
+        DecompressingInputStream dis = new DecompressingInputStream(in, this);
+        byte[] buf = BufferPool.shared().bytes(1 << 16);
+        try {
+            for (int k; (k = dis.read(buf)) != -1; ) {
+                out.write(buf, 0, k);
+            }
+        } finally {
+            BufferPool.shared().release(buf);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,354 @@
+package com.beney.zip;
+
+import com.beney.utils.BinaryIn;
+import com.beney.utils.BinaryOut;
+import com.beney.utils.SuffixArray;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Block-sorting compression in the manner of bzip2: the Burrows-Wheeler transform
+ * of every block, from a suffix array built by {@link SuffixArray}, then
+ * move-to-front, then the runs of zeros coded in bijective base 2 with the two
+ * symbols RUNA and RUNB, then a canonical Huffman code.
+ * <p>
+ * Compressed block:
+ * <pre>
+ *     int length of the original block
+ *     int primary index, the row of the sorted rotations holding the end of the block
+ *     {@value WALKS} - 1 ints, the rows of the rotations starting at the ends of the
+ *         first quarters of the block, where the inverse transform starts its walks
+ *     int number of Huffman symbols
+ *     the code lengths of the {@value SYMBOLS} symbols, then the codewords
+ * </pre>
+ * Files and streams are cut into blocks of {@value BLOCK} bytes compressed
+ * concurrently, in the format of {@link ParallelZip}.
+ *
+ * @author Beney
+ */
+public class BwtZip implements BlockCodec {
+    private static final String SUFFIX = ".bwt";
+    private static final int BUFFER = 1 << 16;
+    private static final int BLOCK = 1 << 20;               // bytes per block of files and streams
+    private static final int MAX_BLOCK = (1 << 24) - 1;     // rows must fit the 24 bits of the inverse
+
+    private static final int WALKS = 4;     // walks of the inverse transform run side by side
+
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int SYMBOLS = 257;     // RUNA, RUNB and move-to-front values 1 to 255
+
+    private volatile CompressionListener listener;
+
+    @Override
+    public void compress(String filePath) {
+        try (InputStream is = new FileInputStream(filePath);
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(filePath + SUFFIX), BUFFER)) {
+            compress(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void expand(String filePath) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(filePath), BUFFER);
+             OutputStream os = new FileOutputStream(filePath.substring(0, filePath.length() - SUFFIX.length()))) {
+            expand(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sorts the blocks concurrently, see {@link ParallelZip}.
+     */
+    @Override
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        new ParallelZip(this, BLOCK).compress(in, out);
+    }
+
+    @Override
+    public void expand(InputStream in, OutputStream out) throws IOException {
+        new ParallelZip(this, BLOCK).expand(in, out);
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code len} is above {@code 2^24 - 1}
+     */
+    @Override
+    public byte[] compressBlock(byte[] src, int off, int len) {
+        if (len > MAX_BLOCK) throw new IllegalArgumentException("Block too large: " + len);
+        Recorder rec = new Recorder();
+        byte[] last = new byte[len];
+        int[] rows = new int[WALKS - 1];
+        int primary = transform(src, off, len, last, rows);
+        rec.lap(Phase.TREE);
+
+        int[] symbols = new int[len];
+        int n = moveToFront(last, symbols);
+        int[] freq = new int[SYMBOLS];
+        for (int i = 0; i < n; i++) {
+            freq[symbols[i]]++;
+        }
+        rec.lap(Phase.HISTOGRAM);
+        HuffmanCode code = HuffmanCode.of(freq);
+        rec.maxCodeLength = code.maxLength();
+        rec.lap(Phase.TREE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(len / 3 + 256);
+        BinaryOut out = new BinaryOut(bytes);
+        out.write(len);
+        out.write(primary);
+        for (int row : rows) {
+            out.write(row);
+        }
+        out.write(n);
+        code.writeLengths(out);
+        rec.lap(Phase.HEADER);
+        for (int i = 0; i < n; i++) {
+            code.encode(out, symbols[i]);
+        }
+        out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, "BwtZip", Operation.COMPRESS);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The block starts with its original length.
+     */
+    @Override
+    public long expandedLength(byte[] src, int off, int len) {
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        int length = in.readInt();
+        in.close();
+        return length;
+    }
+
+    @Override
+    public byte[] expandBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        int length = in.readInt();
+        int primary = in.readInt();
+        int[] rows = new int[WALKS - 1];
+        for (int w = 0; w < rows.length; w++) {
+            rows[w] = in.readInt();
+            if (rows[w] < 0 || rows[w] > length) throw new IllegalArgumentException("Illegal row = " + rows[w]);
+        }
+        int n = in.readInt();
+        if (length < 0 || length > MAX_BLOCK) throw new IllegalArgumentException("Illegal block length = " + length);
+        if (length > 0 && (primary < 1 || primary > length))
+            throw new IllegalArgumentException("Illegal primary index = " + primary);
+        if (n < 0 || n > length) throw new IllegalArgumentException("Illegal symbol count = " + n);
+        HuffmanCode code = HuffmanCode.read(in, SYMBOLS);
+        rec.maxCodeLength = code.maxLength();
+        rec.lap(Phase.HEADER);
+
+        byte[] last = new byte[length];
+        decodeSymbols(in, code, n, last);
+        in.close();
+        rec.lap(Phase.CODE);
+        byte[] block = inverse(last, primary, rows);
+        rec.lap(Phase.TREE);
+        rec.bytesIn = len;
+        rec.bytesOut = length;
+        rec.publish(listener, "BwtZip", Operation.EXPAND);
+        return block;
+    }
+
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String fileSuffix() {
+        return SUFFIX;
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * Burrows-Wheeler transform of the block followed by a sentinel smaller than every
+     * byte. Row 0 of the sorted rotations starts with the sentinel; the last column
+     * goes to {@code last} without the sentinel itself.
+     *
+     * @param rows receives the row of the rotation starting at the end of every walk
+     *             of {@link #inverse(byte[], int, int[])} but the last
+     * @return the row whose last character is the sentinel
+     */
+    private static int transform(byte[] src, int off, int len, byte[] last, int[] rows) {
+        if (len == 0) return 0;
+        int[] sa = SuffixArray.build(src, off, len);
+        int primary = 0, quarter = len / WALKS;
+        last[0] = src[off + len - 1];
+        for (int i = 0, k = 1; i < len; i++) {
+            int p = sa[i];
+            if (quarter > 0 && p % quarter == 0 && p > 0 && p < WALKS * quarter) rows[p / quarter - 1] = i + 1;
+            if (p == 0) primary = i + 1;
+            else last[k++] = src[off + p - 1];
+        }
+        return primary;
+    }
+
+    /**
+     * Move-to-front, with the runs of zeros written as RUNA / RUNB digits and every
+     * other value {@code v} as {@code v + 1}.
+     *
+     * @return number of symbols written to {@code symbols}
+     */
+    private static int moveToFront(byte[] last, int[] symbols) {
+        byte[] order = identity();
+        int n = 0, run = 0;
+        for (byte b : last) {
+            if (order[0] == b) {
+                run++;
+                continue;
+            }
+            if (run > 0) {
+                n = writeRun(run, symbols, n);
+                run = 0;
+            }
+            byte prev = order[0];
+            order[0] = b;
+            int j = 1;
+            while (order[j] != b) {
+                byte t = order[j];
+                order[j++] = prev;
+                prev = t;
+            }
+            order[j] = prev;
+            symbols[n++] = j + 1;
+        }
+        if (run > 0) n = writeRun(run, symbols, n);
+        return n;
+    }
+
+    /**
+     * Writes {@code run} as digits of 1 (RUNA) and 2 (RUNB), least significant first.
+     */
+    private static int writeRun(int run, int[] symbols, int n) {
+        while (run > 0) {
+            if ((run & 1) == 1) {
+                symbols[n++] = RUNA;
+                run = (run - 1) >>> 1;
+            } else {
+                symbols[n++] = RUNB;
+                run = (run - 2) >>> 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Decodes the Huffman symbols and undoes the run-length coding and move-to-front.
+     */
+    private static void decodeSymbols(BinaryIn in, HuffmanCode code, int n, byte[] last) {
+        byte[] order = identity();
+        int k = 0;
+        long run = 0, weight = 1;
+        for (int i = 0; i < n; i++) {
+            int x = code.decode(in);
+            if (x == RUNA || x == RUNB) {
+                run += (x + 1) * weight;
+                weight <<= 1;
+                if (run > last.length - k) throw new IllegalArgumentException("Run past the end of the block");
+                continue;
+            }
+            if (run > 0) {
+                k = fill(last, k, (int) run, order[0]);
+                run = 0;
+                weight = 1;
+            }
+            if (k == last.length) throw new IllegalArgumentException("Symbols past the end of the block");
+            int j = x - 1;
+            byte b = order[j];
+            System.arraycopy(order, 0, order, 1, j);
+            order[0] = b;
+            last[k++] = b;
+        }
+        if (run > 0) k = fill(last, k, (int) run, order[0]);
+        if (k != last.length) throw new IllegalArgumentException("Block ends early: " + k + " of " + last.length);
+    }
+
+    /**
+     * Inverse transform in linear time by the LF mapping: the row that a row's last
+     * character moves to when the rotation turns one step right. Every step is a cache
+     * miss, so the block is rebuilt by {@value WALKS} walks taken together, each
+     * writing one quarter from its end backwards, which keeps several misses in flight.
+     *
+     * @param rows row of the rotation starting at the end of every quarter but the last
+     */
+    private static byte[] inverse(byte[] last, int primary, int[] rows) {
+        int n = last.length;
+        byte[] block = new byte[n];
+        if (n == 0) return block;
+        int[] count = new int[256];
+        for (byte b : last) {
+            count[b & 0xff]++;
+        }
+        int[] next = new int[256];      // first row starting with every byte, after the sentinel row
+        for (int c = 0, sum = 1; c < 256; c++) {
+            next[c] = sum;
+            sum += count[c];
+        }
+        // lf[row] packs (LF(row) << 8) | last character of row
+        int[] lf = new int[n + 1];
+        for (int row = 0, k = 0; row <= n; row++) {
+            if (row == primary) continue;
+            int c = last[k++] & 0xff;
+            lf[row] = (next[c]++ << 8) | c;
+        }
+        int quarter = n / WALKS;
+        int r0 = rows[0], r1 = rows[1], r2 = rows[2], r3 = 0;
+        int p0 = quarter, p1 = 2 * quarter, p2 = 3 * quarter, p3 = n;
+        for (int k = 0; k < quarter; k++) {
+            int e0 = lf[r0], e1 = lf[r1], e2 = lf[r2], e3 = lf[r3];
+            block[--p0] = (byte) e0;
+            block[--p1] = (byte) e1;
+            block[--p2] = (byte) e2;
+            block[--p3] = (byte) e3;
+            r0 = e0 >>> 8;
+            r1 = e1 >>> 8;
+            r2 = e2 >>> 8;
+            r3 = e3 >>> 8;
+        }
+        // the last quarter also holds the remainder
+        while (p3 > 3 * quarter) {
+            int e3 = lf[r3];
+            block[--p3] = (byte) e3;
+            r3 = e3 >>> 8;
+        }
+        return block;
+    }
+
+    private static int fill(byte[] last, int k, int run, byte b) {
+        for (int end = k + run; k < end; k++) {
+            last[k] = b;
+        }
+        return k;
+    }
+
+    private static byte[] identity() {
+        byte[] order = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            order[i] = (byte) i;
+        }
+        return order;
+    }
+}
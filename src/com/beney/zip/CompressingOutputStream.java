@@ -0,0 +1,141 @@
+package com.beney.zip;
+
+import com.beney.utils.BufferPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses everything written to it with a {@link BlockCodec}, one block at a time,
+ * so at most one block of raw data is held in memory.
+ * <p>
+ * Stream format: for every block its original length, its compressed length and the
+ * compressed bytes, ended by a length of 0. Read it back with {@link DecompressingInputStream}.
+ *
+ * @author Beney
+ */
+public class CompressingOutputStream extends FilterOutputStream {
+    static final int DEFAULT_BLOCK = 1 << 20;   // 1 MB
+
+    private final BlockCodec codec;
+    private final byte[] block;
+    private int pos;            // bytes of block filled
+    private boolean finished;
+
+    /**
+     * @param out   receives the compressed stream
+     * @param codec codec of every block
+     */
+    public CompressingOutputStream(OutputStream out, BlockCodec codec) {
+        this(out, codec, DEFAULT_BLOCK);
+    }
+
+    /**
+     * @param out       receives the compressed stream
+     * @param codec     codec of every block
+     * @param blockSize bytes of raw data per block
+     */
+    public CompressingOutputStream(OutputStream out, BlockCodec codec, int blockSize) {
+        super(out);
+        if (blockSize < 1) throw new IllegalArgumentException("Illegal value for blockSize = " + blockSize);
+        this.codec = codec;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[pos++] = (byte) b;
+        if (pos == block.length) writeBlock();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            int k = Math.min(len, block.length - pos);
+            System.arraycopy(b, off, block, pos, k);
+            pos += k;
+            off += k;
+            len -= k;
+            if (pos == block.length) writeBlock();
+        }
+    }
+
+    /**
+     * Compresses the buffered data and writes the end marker, without closing the
+     * underlying stream. Nothing may be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        if (pos > 0) writeBlock();
+        writeInt(0);
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * Flushes the underlying stream. Data of a block that is not full yet stays
+     * buffered, since blocks are compressed whole.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Compresses everything left in {@code in} into {@code out}, then finishes the stream
+     * without closing {@code out}.
+     */
+    static void transfer(InputStream in, OutputStream out, BlockCodec codec, int blockSize) throws IOException {
+        // streams that know their remaining length: a short one gets a block its own size,
+        // which leaves the blocks the same and saves allocating a full block
+        if (in instanceof ByteArrayInputStream || in instanceof FileInputStream)
+            blockSize = Math.min(blockSize, Math.max(in.available(), 1));
+        CompressingOutputStream cos = new CompressingOutputStream(out, codec, blockSize);
+        byte[] buf = BufferPool.shared().bytes(1 << 16);
+        try {
+            for (int k; (k = in.read(buf)) != -1; ) {
+                cos.write(buf, 0, k);
+            }
+        } finally {
+            BufferPool.shared().release(buf);
+        }
+        cos.finish();
+    }
+
+    //**************************** private methods ********************************//
+
+    private void writeBlock() throws IOException {
+        byte[] data = codec.compressBlock(block, 0, pos);
+        writeInt(pos);
+        writeInt(data.length);
+        out.write(data);
+        pos = 0;
+    }
+
+    private void writeInt(int x) throws IOException {
+        out.write(x >>> 24);
+        out.write(x >>> 16);
+        out.write(x >>> 8);
+        out.write(x);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) throw new IOException("Write after finish");
+    }
+}
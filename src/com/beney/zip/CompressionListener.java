@@ -0,0 +1,18 @@
+package com.beney.zip;
+
+/**
+ * Receives the {@link CompressionStats} of every operation of a codec it is set on,
+ * see {@link MyZip#setListener(CompressionListener)}.
+ * <p>
+ * It is called on the thread that ran the operation, so a listener shared by block
+ * codecs used from several threads must be thread-safe, and it should return quickly.
+ *
+ * @author Beney
+ */
+@FunctionalInterface
+public interface CompressionListener {
+    /**
+     * @param stats figures of the operation that just completed
+     */
+    void completed(CompressionStats stats);
+}
@@ -0,0 +1,158 @@
+package com.beney.zip;
+
+/**
+ * What one compress or expand operation did: its byte counts, the time spent in
+ * every phase, and codec-specific figures. Values that do not apply to a codec are
+ * {@code -1}.
+ *
+ * @author Beney
+ */
+public final class CompressionStats {
+
+    public enum Operation { COMPRESS, EXPAND }
+
+    public enum Phase {
+        HISTOGRAM,  // counting symbol frequencies
+        TREE,       // building the Huffman code
+        HEADER,     // writing or reading the header
+        CODE,       // encoding or decoding the data
+        IO          // reading the input, closing the output
+    }
+
+    private static final int PHASES = Phase.values().length;
+
+    private final String codec;
+    private final Operation operation;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long[] nanos;
+    private final int maxCodeLength;
+    private final int dictionarySize;
+    private final int dictionaryResets;
+
+    private CompressionStats(String codec, Operation operation, Recorder r) {
+        this.codec = codec;
+        this.operation = operation;
+        this.bytesIn = r.bytesIn;
+        this.bytesOut = r.bytesOut;
+        this.nanos = r.nanos.clone();
+        this.maxCodeLength = r.maxCodeLength;
+        this.dictionarySize = r.dictionarySize;
+        this.dictionaryResets = r.dictionaryResets;
+    }
+
+    /**
+     * @return name of the codec
+     */
+    public String codec() {
+        return codec;
+    }
+
+    public Operation operation() {
+        return operation;
+    }
+
+    /**
+     * @return bytes consumed, raw for {@code COMPRESS} and compressed for {@code EXPAND}
+     */
+    public long bytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return bytes produced, compressed for {@code COMPRESS} and raw for {@code EXPAND}
+     */
+    public long bytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return compressed size over raw size, {@code 0} for empty input
+     */
+    public double ratio() {
+        long raw = operation == Operation.COMPRESS ? bytesIn : bytesOut;
+        long compressed = operation == Operation.COMPRESS ? bytesOut : bytesIn;
+        return raw == 0 ? 0 : (double) compressed / raw;
+    }
+
+    /**
+     * @return nanoseconds spent in {@code phase}
+     */
+    public long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return nanoseconds of the whole operation
+     */
+    public long totalNanos() {
+        long total = 0;
+        for (long t : nanos) {
+            total += t;
+        }
+        return total;
+    }
+
+    /**
+     * @return length of the longest Huffman codeword
+     */
+    public int maxCodeLength() {
+        return maxCodeLength;
+    }
+
+    /**
+     * @return LZW codes in the dictionary at the end of the operation
+     */
+    public int dictionarySize() {
+        return dictionarySize;
+    }
+
+    /**
+     * @return times the LZW dictionary was cleared
+     */
+    public int dictionaryResets() {
+        return dictionaryResets;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(codec).append(' ').append(operation).append(": ")
+                .append(bytesIn).append(" -> ").append(bytesOut)
+                .append(String.format(" bytes, ratio %.3f, %.3f ms", ratio(), totalNanos() / 1e6));
+        for (Phase p : Phase.values()) {
+            if (nanos(p) > 0) sb.append(String.format(", %s %.3f ms", p.name().toLowerCase(), nanos(p) / 1e6));
+        }
+        if (maxCodeLength >= 0) sb.append(", max code length ").append(maxCodeLength);
+        if (dictionarySize >= 0) sb.append(", dictionary ").append(dictionarySize);
+        if (dictionaryResets >= 0) sb.append(", resets ").append(dictionaryResets);
+        return sb.toString();
+    }
+
+    /**
+     * Collects the figures while an operation runs. Each call of {@link #lap(Phase)}
+     * charges the time since the previous one to a phase.
+     */
+    static final class Recorder {
+        private final long[] nanos = new long[PHASES];
+        private long mark = System.nanoTime();
+        long bytesIn;
+        long bytesOut;
+        int maxCodeLength = -1;
+        int dictionarySize = -1;
+        int dictionaryResets = -1;
+
+        void lap(Phase phase) {
+            long now = System.nanoTime();
+            nanos[phase.ordinal()] += now - mark;
+            mark = now;
+        }
+
+        /**
+         * Hands the figures to {@code listener}, if there is one.
+         */
+        void publish(CompressionListener listener, String codec, Operation operation) {
+            if (listener != null) listener.completed(new CompressionStats(codec, operation, this));
+        }
+    }
+}
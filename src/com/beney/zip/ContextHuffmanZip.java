@@ -0,0 +1,373 @@
+package com.beney.zip;
+
+import com.beney.utils.BinaryIn;
+import com.beney.utils.BinaryOut;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Order-1 Huffman: every byte is coded with a table picked by the byte before it,
+ * so the strong byte-to-byte correlation of text and structured data is used.
+ * <p>
+ * A table per context would make the header too large, so the contexts of every
+ * block are clustered: starting with one table per context, the two tables whose
+ * merge saves the most estimated bits (code plus header) are merged until no merge
+ * saves any. Blocks without useful correlation end with a single table, which is
+ * plain order-0 Huffman.
+ * <p>
+ * Compressed block:
+ * <pre>
+ *     int length of the original block
+ *     8 bits of (tables - 1), then the table of every context if there is more than one
+ *     the code lengths of every table, see {@link HuffmanCode#writeUsedLengths(BinaryOut)}
+ *     the codewords, the first byte taking context 0
+ * </pre>
+ * Files and streams are cut into blocks as by {@link CompressingOutputStream}.
+ *
+ * @author Beney
+ */
+public class ContextHuffmanZip implements BlockCodec {
+    private static final String SUFFIX = ".chuf";
+    private static final int BUFFER = 1 << 16;
+    private static final int R = 256;
+
+    private static final double[] LOG2 = new double[1 << 12];
+
+    static {
+        for (int n = 1; n < LOG2.length; n++) {
+            LOG2[n] = Math.log(n) / Math.log(2);
+        }
+    }
+
+    private volatile CompressionListener listener;
+
+    @Override
+    public void compress(String filePath) {
+        try (InputStream is = new FileInputStream(filePath);
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(filePath + SUFFIX), BUFFER)) {
+            compress(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void expand(String filePath) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(filePath), BUFFER);
+             OutputStream os = new FileOutputStream(filePath.substring(0, filePath.length() - SUFFIX.length()))) {
+            expand(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public byte[] compressBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        int[][] hist = new int[R][R];
+        for (int i = off, prev = 0; i < off + len; i++) {
+            int s = src[i] & 0xff;
+            hist[prev][s]++;
+            prev = s;
+        }
+        rec.lap(Phase.HISTOGRAM);
+
+        int[] table = new int[R];
+        int tables = cluster(hist, table);
+        int[][] freq = new int[tables][R];
+        for (int c = 0; c < R; c++) {
+            int[] f = freq[table[c]];
+            for (int s = 0; s < R; s++) {
+                f[s] += hist[c][s];
+            }
+        }
+        HuffmanCode[] codes = new HuffmanCode[tables];
+        int maxLength = 0;
+        for (int t = 0; t < tables; t++) {
+            codes[t] = HuffmanCode.of(freq[t]);
+            maxLength = Math.max(maxLength, codes[t].maxLength());
+        }
+        rec.maxCodeLength = maxLength;
+        rec.lap(Phase.TREE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(len / 2 + 64);
+        BinaryOut out = new BinaryOut(bytes);
+        out.write(len);
+        out.write(tables - 1, 8);
+        int width = width(tables);
+        if (tables > 1) {
+            for (int c = 0; c < R; c++) {
+                out.write(table[c], width);
+            }
+        }
+        for (HuffmanCode code : codes) {
+            code.writeUsedLengths(out);
+        }
+        rec.lap(Phase.HEADER);
+
+        HuffmanCode[] byContext = new HuffmanCode[R];
+        for (int c = 0; c < R; c++) {
+            byContext[c] = codes[table[c]];
+        }
+        for (int i = off, prev = 0; i < off + len; i++) {
+            int s = src[i] & 0xff;
+            byContext[prev].encode(out, s);
+            prev = s;
+        }
+        out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, "ContextHuffmanZip", Operation.COMPRESS);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The block starts with its original length.
+     */
+    @Override
+    public long expandedLength(byte[] src, int off, int len) {
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        int length = in.readInt();
+        in.close();
+        return length;
+    }
+
+    @Override
+    public byte[] expandBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        int length = in.readInt();
+        if (length < 0) throw new IllegalArgumentException("Illegal block length = " + length);
+        int tables = in.readInt(8) + 1;
+        int[] table = new int[R];
+        if (tables > 1) {
+            int width = width(tables);
+            for (int c = 0; c < R; c++) {
+                table[c] = in.readInt(width);
+                if (table[c] >= tables) throw new IllegalArgumentException("Illegal table = " + table[c]);
+            }
+        }
+        HuffmanCode[] codes = new HuffmanCode[tables];
+        int maxLength = 0;
+        for (int t = 0; t < tables; t++) {
+            codes[t] = HuffmanCode.readUsed(in, R);
+            maxLength = Math.max(maxLength, codes[t].maxLength());
+        }
+        HuffmanCode[] byContext = new HuffmanCode[R];
+        for (int c = 0; c < R; c++) {
+            byContext[c] = codes[table[c]];
+        }
+        rec.maxCodeLength = maxLength;
+        rec.lap(Phase.HEADER);
+
+        byte[] block = new byte[length];
+        for (int i = 0, prev = 0; i < length; i++) {
+            prev = byContext[prev].decode(in);
+            block[i] = (byte) prev;
+        }
+        in.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = length;
+        rec.publish(listener, "ContextHuffmanZip", Operation.EXPAND);
+        return block;
+    }
+
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String fileSuffix() {
+        return SUFFIX;
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * Clusters the contexts into tables, see the class comment.
+     *
+     * @param hist  {@code hist[c][s]} counts byte {@code s} after byte {@code c}
+     * @param table receives the table of every context
+     * @return number of tables
+     */
+    private static int cluster(int[][] hist, int[] table) {
+        int[] context = new int[R];
+        Cluster[] cluster = new Cluster[R];
+        int n = 0;
+        for (int c = 0; c < R; c++) {
+            Cluster k = new Cluster(hist[c]);
+            if (k.total > 0) {
+                context[n] = c;
+                cluster[n++] = k;
+            }
+        }
+        if (n <= 1) return 1;
+
+        // a table per context not beating a single table means the bytes hardly depend on
+        // the byte before, as in random or already compressed data: skip the clustering
+        Cluster all = new Cluster(new int[R]);
+        double separate = 0;
+        for (int i = 0; i < n; i++) {
+            separate += cluster[i].cost();
+            all.merge(cluster[i]);
+        }
+        if (separate >= all.cost()) return 1;
+
+        // saving[i][j] for i < j, and the best partner of every row to skip most of the search
+        double[][] saving = new double[n][n];
+        int[] partner = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                saving[i][j] = cluster[i].saving(cluster[j]);
+            }
+        }
+        int[] owner = new int[n];       // cluster of every context, named by its first context
+        boolean[] merged = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            owner[i] = i;
+            partner[i] = partner(saving[i], merged, i);
+        }
+        while (true) {
+            int a = -1;
+            double best = 0;
+            for (int i = 0; i < n; i++) {
+                if (!merged[i] && partner[i] >= 0 && saving[i][partner[i]] > best) {
+                    best = saving[i][partner[i]];
+                    a = i;
+                }
+            }
+            if (a < 0) break;
+            int b = partner[a];
+            cluster[a].merge(cluster[b]);
+            merged[b] = true;
+            for (int i = 0; i < n; i++) {
+                if (owner[i] == b) owner[i] = a;
+            }
+            for (int i = 0; i < n; i++) {
+                if (merged[i] || i == a) continue;
+                double s = cluster[a].saving(cluster[i]);
+                if (i > a) {
+                    saving[a][i] = s;
+                } else {
+                    saving[i][a] = s;
+                    if (partner[i] == a || partner[i] == b) partner[i] = partner(saving[i], merged, i);
+                    else if (partner[i] < 0 || s > saving[i][partner[i]]) partner[i] = a;
+                }
+                if (i < b && i > a && partner[i] == b) partner[i] = partner(saving[i], merged, i);
+            }
+            partner[a] = partner(saving[a], merged, a);
+        }
+        int[] index = new int[n];
+        int tables = 0;
+        for (int i = 0; i < n; i++) {
+            if (!merged[i]) index[i] = tables++;
+        }
+        for (int i = 0; i < n; i++) {
+            table[context[i]] = index[owner[i]];
+        }
+        return tables;
+    }
+
+    /**
+     * @return the {@code j > i} not merged yet with the largest {@code row[j]}, or {@code -1}
+     */
+    private static int partner(double[] row, boolean[] merged, int i) {
+        int best = -1;
+        for (int j = i + 1; j < row.length; j++) {
+            if (!merged[j] && (best < 0 || row[j] > row[best])) best = j;
+        }
+        return best;
+    }
+
+    /**
+     * Contexts sharing a table, with the byte counts of all of them. Keeps the list of
+     * bytes seen so the cost of a merge only visits the bytes of the smaller cluster.
+     */
+    private static final class Cluster {
+        private final int[] freq;
+        private final int[] symbols = new int[R];   // bytes with freq > 0
+        private int used;
+        private long total;
+        private double sum;                         // sum of freq * log2(freq)
+
+        Cluster(int[] freq) {
+            this.freq = freq.clone();
+            for (int s = 0; s < R; s++) {
+                if (freq[s] == 0) continue;
+                symbols[used++] = s;
+                total += freq[s];
+                sum += nlog2n(freq[s]);
+            }
+        }
+
+        /**
+         * @return estimated bits of the table: the order-0 entropy of the bytes it codes
+         * plus its code lengths
+         */
+        double cost() {
+            return cost(total, sum, used);
+        }
+
+        /**
+         * @return bits saved by sharing one table with {@code o}
+         */
+        double saving(Cluster o) {
+            Cluster x = used <= o.used ? this : o, y = x == this ? o : this;
+            double s = sum + o.sum;
+            int u = used + o.used;
+            for (int k = 0; k < x.used; k++) {
+                int fx = x.freq[x.symbols[k]], fy = y.freq[x.symbols[k]];
+                if (fy > 0) {
+                    s += nlog2n(fx + fy) - nlog2n(fx) - nlog2n(fy);
+                    u--;
+                }
+            }
+            return cost() + o.cost() - cost(total + o.total, s, u);
+        }
+
+        void merge(Cluster o) {
+            for (int k = 0; k < o.used; k++) {
+                int sym = o.symbols[k];
+                if (freq[sym] > 0) sum -= nlog2n(freq[sym]);
+                else symbols[used++] = sym;
+                freq[sym] += o.freq[sym];
+                sum += nlog2n(freq[sym]);
+            }
+            total += o.total;
+        }
+
+        private static double cost(long total, double sum, int used) {
+            return nlog2n(total) - sum + R + used * HuffmanCode.LEN_BITS;
+        }
+    }
+
+    /**
+     * @return {@code n * log2(n)}, from the top 12 bits of large {@code n}, close enough for comparing costs
+     */
+    private static double nlog2n(long n) {
+        if (n < LOG2.length) return n * LOG2[(int) n];
+        int shift = 52 - Long.numberOfLeadingZeros(n);
+        return n * (shift + LOG2[(int) (n >>> shift)]);
+    }
+
+    /**
+     * @return bits needed for a table number
+     */
+    private static int width(int tables) {
+        return 32 - Integer.numberOfLeadingZeros(tables - 1);
+    }
+}
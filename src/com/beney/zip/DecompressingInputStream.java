@@ -0,0 +1,111 @@
+package com.beney.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the stream written by {@link CompressingOutputStream}, expanding one block
+ * at a time as its bytes are asked for.
+ *
+ * @author Beney
+ */
+public class DecompressingInputStream extends InputStream {
+    private static final int DEFAULT_MAX_BLOCK = 1 << 28;    // 256 MB
+
+    private final InputStream in;
+    private final BlockCodec codec;
+    private final int maxBlock;             // largest length accepted from a block header
+    private byte[] block = new byte[0];     // the current expanded block
+    private int pos;                        // next unread byte of block
+    private boolean eof;                    // end marker reached
+
+    /**
+     * @param in    the compressed stream
+     * @param codec codec of every block
+     */
+    public DecompressingInputStream(InputStream in, BlockCodec codec) {
+        this(in, codec, DEFAULT_MAX_BLOCK);
+    }
+
+    /**
+     * @param in       the compressed stream
+     * @param codec    codec of every block
+     * @param maxBlock largest original or compressed length of a block; a header claiming
+     *                 more is taken for corruption rather than allocated
+     */
+    public DecompressingInputStream(InputStream in, BlockCodec codec, int maxBlock) {
+        if (maxBlock < 1) throw new IllegalArgumentException("Illegal value for maxBlock = " + maxBlock);
+        this.in = in;
+        this.codec = codec;
+        this.maxBlock = maxBlock;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == block.length && !nextBlock()) return -1;
+        return block[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (pos == block.length && !nextBlock()) return -1;
+        int k = Math.min(len, block.length - pos);
+        System.arraycopy(block, pos, b, off, k);
+        pos += k;
+        return k;
+    }
+
+    @Override
+    public int available() {
+        return block.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * @return {@code false} at the end marker
+     */
+    private boolean nextBlock() throws IOException {
+        if (eof) return false;
+        int length = readInt();
+        if (length == 0) {
+            eof = true;
+            return false;
+        }
+        int compressed = readInt();
+        if (length < 0 || length > maxBlock || compressed < 0 || compressed > maxBlock)
+            throw new IOException("Corrupt block length: " + length + " bytes, " + compressed + " compressed");
+        byte[] data = new byte[compressed];
+        readFully(data);
+        block = codec.expandBlock(data, 0, data.length);
+        pos = 0;
+        if (block.length != length)
+            throw new IOException("Corrupt block: expected " + length + " bytes, got " + block.length);
+        return true;
+    }
+
+    private int readInt() throws IOException {
+        int x = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Unexpected end of compressed stream");
+            x = (x << 8) | b;
+        }
+        return x;
+    }
+
+    private void readFully(byte[] b) throws IOException {
+        for (int n = 0, k; n < b.length; n += k) {
+            k = in.read(b, n, b.length - n);
+            if (k < 0) throw new EOFException("Unexpected end of compressed stream");
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.beney.zip;
+
+import com.beney.utils.BinaryIn;
+import com.beney.utils.BinaryOut;
+
+import java.util.Arrays;
+
+/**
+ * A prefix code over the symbols {@code 0 .. n-1}, held as primitive arrays:
+ * {@code code[s]} is the codeword of symbol {@code s} and {@code len[s]} its
+ * length in bits ({@code 0} if the symbol never occurs).
+ * <p>
+ * Codes built from frequencies are canonical: codewords are assigned in order of
+ * (length, symbol), so the code lengths alone are enough to rebuild the code and
+ * are all that gets written to the header.
+ *
+ * @author Beney
+ */
+final class HuffmanCode {
+    static final int MAX_LEN = 24;      // longest codeword, a code fits in an int and one bit write
+    static final int LEN_BITS = 5;              // width of each code length in the header
+    private static final int TABLE_BITS = 10;   // bits resolved by the primary decode table
+
+    private final int[] code;
+    private final byte[] len;
+
+    /*
+     * decode table, built on first use:
+     * entry >= 0 : (code length << 16) | symbol
+     * entry < 0  : ~(secondary offset << 5 | secondary bits)
+     */
+    private int[] table;
+    private int bits;
+
+    /**
+     * @param code codeword of every symbol
+     * @param len  length of every codeword, at most {@link #MAX_LEN}
+     */
+    HuffmanCode(int[] code, byte[] len) {
+        this.code = code;
+        this.len = len;
+    }
+
+    /**
+     * @param freq frequency of every symbol
+     * @return canonical Huffman code for {@code freq}, limited to {@link #MAX_LEN} bits
+     */
+    static HuffmanCode of(int[] freq) {
+        return canonical(lengths(freq, MAX_LEN));
+    }
+
+    /**
+     * @param freq frequency of every symbol
+     * @return canonical Huffman code for {@code freq}, limited to {@link #MAX_LEN} bits
+     */
+    static HuffmanCode of(long[] freq) {
+        long max = 0;
+        for (long f : freq) {
+            max = Math.max(max, f);
+        }
+        // scale counts of huge inputs down to int range, keeping every used symbol
+        int shift = 0;
+        while ((max >>> shift) > Integer.MAX_VALUE) shift++;
+        int[] scaled = new int[freq.length];
+        for (int s = 0; s < freq.length; s++) {
+            if (freq[s] > 0) scaled[s] = (int) Math.max(1, freq[s] >>> shift);
+        }
+        return of(scaled);
+    }
+
+    /**
+     * Reads the code lengths written by {@link #writeLengths(BinaryOut)}.
+     *
+     * @param in      input
+     * @param symbols alphabet size
+     * @return the canonical code with those lengths
+     */
+    static HuffmanCode read(BinaryIn in, int symbols) {
+        byte[] len = new byte[symbols];
+        for (int s = 0; s < symbols; s++) {
+            len[s] = (byte) in.readInt(LEN_BITS);
+            if (len[s] > MAX_LEN) throw new IllegalArgumentException("Illegal code length = " + len[s]);
+        }
+        return canonical(len);
+    }
+
+    /**
+     * Writes the code length of every symbol.
+     */
+    void writeLengths(BinaryOut out) {
+        for (byte l : len) {
+            out.write(l, LEN_BITS);
+        }
+    }
+
+    /**
+     * Reads the code lengths written by {@link #writeUsedLengths(BinaryOut)}.
+     *
+     * @param in      input
+     * @param symbols alphabet size
+     * @return the canonical code with those lengths
+     */
+    static HuffmanCode readUsed(BinaryIn in, int symbols) {
+        boolean[] used = new boolean[symbols];
+        for (int s = 0; s < symbols; s++) {
+            used[s] = in.readBoolean();
+        }
+        byte[] len = new byte[symbols];
+        for (int s = 0; s < symbols; s++) {
+            if (!used[s]) continue;
+            len[s] = (byte) in.readInt(LEN_BITS);
+            if (len[s] == 0 || len[s] > MAX_LEN) throw new IllegalArgumentException("Illegal code length = " + len[s]);
+        }
+        return canonical(len);
+    }
+
+    /**
+     * Writes one bit per symbol marking the symbols that have a codeword, then the
+     * code lengths of those only. Smaller than {@link #writeLengths(BinaryOut)} for
+     * codes that use few of the symbols.
+     */
+    void writeUsedLengths(BinaryOut out) {
+        for (byte l : len) {
+            out.write(l > 0);
+        }
+        for (byte l : len) {
+            if (l > 0) out.write(l, LEN_BITS);
+        }
+    }
+
+    /**
+     * Writes the codeword of {@code symbol} with a single multi-bit write.
+     */
+    void encode(BinaryOut out, int symbol) {
+        out.writeBits(code[symbol], len[symbol]);
+    }
+
+    /**
+     * @return the next symbol decoded from {@code in}
+     */
+    int decode(BinaryIn in) {
+        if (table == null) buildTable();
+        int e = table[in.peekBits(bits)];
+        if (e < 0) {
+            e = ~e;
+            int sub = e & 31;
+            e = table[(e >>> 5) + (in.peekBits(bits + sub) & ((1 << sub) - 1))];
+        }
+        if (e == 0) throw new IllegalArgumentException("Illegal codeword");   // hole of an incomplete code
+        in.consumeBits(e >>> 16);
+        return e & 0xffff;
+    }
+
+    /**
+     * @return length in bits of the codeword of {@code symbol}
+     */
+    int length(int symbol) {
+        return len[symbol];
+    }
+
+    /**
+     * @return length of the longest codeword
+     */
+    int maxLength() {
+        int max = 0;
+        for (byte l : len) {
+            max = Math.max(max, l);
+        }
+        return max;
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * Assigns codewords in order of (length, symbol).
+     */
+    private static HuffmanCode canonical(byte[] len) {
+        int[] count = new int[MAX_LEN + 1];
+        for (byte l : len) {
+            if (l > 0) count[l]++;
+        }
+        int[] next = new int[MAX_LEN + 1];
+        int c = 0;
+        for (int l = 1; l <= MAX_LEN; l++) {
+            c = (c + count[l - 1]) << 1;
+            next[l] = c;
+            if (c + count[l] > (1 << l)) throw new IllegalArgumentException("Over-subscribed code lengths");
+        }
+        int[] code = new int[len.length];
+        for (int s = 0; s < len.length; s++) {
+            if (len[s] > 0) code[s] = next[len[s]]++;
+        }
+        return new HuffmanCode(code, len);
+    }
+
+    /**
+     * Computes Huffman code lengths without building a tree of objects: the
+     * symbols are sorted by frequency and merged with the two-queue method,
+     * recording only each node's parent. If the longest code exceeds
+     * {@code maxLen}, the frequencies are flattened and the lengths recomputed.
+     */
+    private static byte[] lengths(int[] freq, int maxLen) {
+        int n = freq.length, m = 0;
+        long[] sorted = new long[n];
+        for (int s = 0; s < n; s++) {
+            if (freq[s] > 0) sorted[m++] = ((long) freq[s] << 32) | s;
+        }
+        byte[] len = new byte[n];
+        if (m == 0) return len;
+        if (m == 1) {
+            len[(int) sorted[0]] = 1;
+            return len;
+        }
+        sorted = Arrays.copyOf(sorted, m);
+
+        long[] weight = new long[2 * m - 1];
+        int[] parent = new int[2 * m - 1];
+        int[] depth = new int[2 * m - 1];
+        while (true) {
+            Arrays.sort(sorted);
+            for (int i = 0; i < m; i++) {
+                weight[i] = sorted[i] >>> 32;
+            }
+            int leaf = 0, node = m;
+            for (int k = m; k < 2 * m - 1; k++) {
+                int a = (leaf < m && (node >= k || weight[leaf] <= weight[node])) ? leaf++ : node++;
+                int b = (leaf < m && (node >= k || weight[leaf] <= weight[node])) ? leaf++ : node++;
+                weight[k] = weight[a] + weight[b];
+                parent[a] = k;
+                parent[b] = k;
+            }
+            // the root is the last node created, parents always come after their children
+            int max = 0;
+            depth[2 * m - 2] = 0;
+            for (int k = 2 * m - 3; k >= 0; k--) {
+                depth[k] = depth[parent[k]] + 1;
+                max = Math.max(max, depth[k]);
+            }
+            if (max <= maxLen) break;
+            for (int i = 0; i < m; i++) {
+                long f = ((sorted[i] >>> 33) | 1);
+                sorted[i] = (f << 32) | (sorted[i] & 0xffffffffL);
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            len[(int) sorted[i]] = (byte) depth[i];
+        }
+        return len;
+    }
+
+    /**
+     * Builds the two-level decode table: a primary table indexed by the next
+     * {@code bits} bits, and for every primary prefix shared by longer codewords
+     * a secondary table indexed by the bits that follow it.
+     */
+    private void buildTable() {
+        int max = maxLength();
+        bits = Math.max(1, Math.min(max, TABLE_BITS));
+        int size = 1 << bits;
+
+        int[] width = new int[size];
+        for (int s = 0; s < len.length; s++) {
+            if (len[s] > bits) {
+                int prefix = code[s] >>> (len[s] - bits);
+                width[prefix] = Math.max(width[prefix], len[s] - bits);
+            }
+        }
+        int[] offset = new int[size];
+        int total = size;
+        for (int p = 0; p < size; p++) {
+            if (width[p] > 0) {
+                offset[p] = total;
+                total += 1 << width[p];
+            }
+        }
+
+        table = new int[total];
+        for (int p = 0; p < size; p++) {
+            if (width[p] > 0) table[p] = ~((offset[p] << 5) | width[p]);
+        }
+        for (int s = 0; s < len.length; s++) {
+            int l = len[s];
+            if (l == 0) continue;
+            int entry = (l << 16) | s;
+            if (l <= bits) {
+                int from = code[s] << (bits - l);
+                Arrays.fill(table, from, from + (1 << (bits - l)), entry);
+            } else {
+                int prefix = code[s] >>> (l - bits), w = width[prefix], rest = l - bits;
+                int from = offset[prefix] + ((code[s] & ((1 << rest) - 1)) << (w - rest));
+                Arrays.fill(table, from, from + (1 << (w - rest)), entry);
+            }
+        }
+    }
+}
@@ -3,58 +3,177 @@ package com.beney.zip;
 
 import com.beney.utils.BinaryIn;
 import com.beney.utils.BinaryOut;
+import com.beney.utils.BufferPool;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * compress and expand based on Huffman Tree
  *
  * @author Beney
  */
-public class HuffmanZip implements MyZip {
+public class HuffmanZip implements BlockCodec {
     private static final int R = 256; // total number of ascii
 
     private static final String SUFFIX = ".huf"; // suffix of the compressed file
 
+    private static final int BUFFER = 1 << 16;  // bytes of raw data read or written at a time
+
+    private final boolean canonical;
+
+    private volatile CompressionListener listener;
+
+    // histogram of the last call, taken by the next one instead of allocating its own
+    private final AtomicReference<long[]> histogram = new AtomicReference<>();
+
     private BinaryIn in = null;
     private BinaryOut out = null;
 
+    /**
+     * Huffman codec writing the pre-order trie as header.
+     */
+    public HuffmanZip() {
+        this(false);
+    }
+
+    /**
+     * @param canonical {@code true} to use canonical Huffman codes, whose header is only
+     *                  the {@value R} code lengths, {@code false} to write the pre-order trie
+     */
+    public HuffmanZip(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    /**
+     * Compresses in two passes over the file, first counting the frequencies and then
+     * encoding, so memory use does not depend on the size of the file.
+     */
     @Override
     public void compress(String filePath) {
-        in = new BinaryIn(filePath);
-        out = new BinaryOut(filePath + SUFFIX);
-        char[] input = in.readString().toCharArray();
-        int[] freq = new int[R];
-
-        for (int i = 0; i < input.length; i++) {
-            freq[input[i]]++;
+        Recorder rec = new Recorder();
+        long[] freq = takeHistogram();
+        long length = 0;
+        byte[] buf = BufferPool.shared().bytes(BUFFER);
+        try (InputStream is = new FileInputStream(filePath)) {
+            for (int k; (k = is.read(buf)) != -1; ) {
+                rec.lap(Phase.IO);
+                length += k;
+                count(freq, buf, 0, k);
+                rec.lap(Phase.HISTOGRAM);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            BufferPool.shared().release(buf);
+            return;
+        }
+        // the trie format only has room for a 32-bit length
+        if (!canonical && length > Integer.MAX_VALUE) {
+            BufferPool.shared().release(buf);
+            throw new IllegalArgumentException("File too large for the trie format: " + filePath);
         }
-        Node root = buildTrie(freq);
-        Map<Character, String> codeMap = buildCode(root);
 
-        writeTrie(root, out);
-        out.write(input.length);
-        writeCode(codeMap, input, out);
+        out = new BinaryOut(filePath + SUFFIX);
+        rec.lap(Phase.IO);
+        Encoder encoder = writeHeader(freq, length, out, rec);
+        histogram.set(freq);
+        try (InputStream is = new FileInputStream(filePath)) {
+            for (int k; (k = is.read(buf)) != -1; ) {
+                rec.lap(Phase.IO);
+                encoder.encode(buf, 0, k, out);
+                rec.lap(Phase.CODE);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        BufferPool.shared().release(buf);
         out.close();
+        rec.lap(Phase.IO);
+        rec.bytesIn = length;
+        rec.bytesOut = out.bytesWritten();
+        rec.publish(listener, name(), Operation.COMPRESS);
     }
 
     @Override
     public void expand(String filePath) {
+        Recorder rec = new Recorder();
         in = new BinaryIn(filePath);
         out = new BinaryOut(filePath.substring(0, filePath.length() - SUFFIX.length()));
+        rec.lap(Phase.IO);
+        expand(in, out, rec);
+        in.close();
+        out.close();
+        rec.lap(Phase.IO);
+        rec.bytesIn = new File(filePath).length();
+        rec.bytesOut = out.bytesWritten();
+        rec.publish(listener, name(), Operation.EXPAND);
+    }
 
-        Node root = readTrie(in), x;
-        int length = in.readInt();
-        for (int i = 0; i < length; i++) {
-            x = root;
-            while (!x.isLeaf()) {
-                boolean bit = in.readBoolean();
-                if (bit) x = x.right;
-                else x = x.left;
-            }
-            out.write(x.ch, 8);
+    @Override
+    public byte[] compressBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        long[] freq = takeHistogram();
+        count(freq, src, off, len);
+        rec.lap(Phase.HISTOGRAM);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryOut out = new BinaryOut(bytes);
+        Encoder encoder = writeHeader(freq, len, out, rec);
+        histogram.set(freq);
+        encoder.encode(src, off, len, out);
+        out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, name(), Operation.COMPRESS);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The original length follows the code or the trie.
+     */
+    @Override
+    public long expandedLength(byte[] src, int off, int len) {
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        long length;
+        if (canonical) {
+            HuffmanCode.read(in, R);
+            length = in.readLong();
+        } else {
+            readTrie(in);
+            length = in.readInt();
         }
+        in.close();
+        return length;
+    }
+
+    @Override
+    public byte[] expandBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryOut out = new BinaryOut(bytes);
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        expand(in, out, rec);
+        in.close();
         out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, name(), Operation.EXPAND);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
     }
 
     @Override
@@ -62,23 +181,34 @@ public class HuffmanZip implements MyZip {
         return SUFFIX;
     }
 
+    @Override
+    public void reset() {
+        in = null;
+        out = null;
+        long[] freq = histogram.getAndSet(null);
+        if (freq != null) {
+            Arrays.fill(freq, 0);
+            histogram.compareAndSet(null, freq);
+        }
+    }
+
     /**
      * Node in Huffman Tree
      */
     private static class Node implements Comparable<Node> {
 
         private final char ch;      // only used for leaf
-        private final int freq;     // only used for leaf
+        private final long freq;    // only used for leaf
         private Node left, right;
 
-        public Node(char ch, int freq, Node left, Node right) {
+        public Node(char ch, long freq, Node left, Node right) {
             this.ch = ch;
             this.freq = freq;
             this.left = left;
             this.right = right;
         }
 
-        public Node(char ch, int freq) {
+        public Node(char ch, long freq) {
             this.ch = ch;
             this.freq = freq;
         }
@@ -89,17 +219,116 @@ public class HuffmanZip implements MyZip {
 
         @Override
         public int compareTo(Node o) {
-            return this.freq - o.freq;  // 通过freq(频率)来比较
+            return Long.compare(this.freq, o.freq);  // 通过freq(频率)来比较
+        }
+    }
+
+    /**
+     * Encodes with the code arrays, or with the code strings of a trie too deep for them.
+     */
+    private static final class Encoder {
+        private final HuffmanCode code;
+        private final Map<Character, String> codeMap;
+
+        Encoder(HuffmanCode code, Map<Character, String> codeMap) {
+            this.code = code;
+            this.codeMap = codeMap;
+        }
+
+        void encode(byte[] input, int off, int len, BinaryOut out) {
+            if (code != null) {
+                for (int i = off; i < off + len; i++) {
+                    code.encode(out, input[i] & 0xff);
+                }
+                return;
+            }
+            String s;
+            for (int i = off; i < off + len; i++) {
+                s = codeMap.get((char) (input[i] & 0xff));
+                for (int j = 0; j < s.length(); j++) {
+                    if (s.charAt(j) == '0') out.write(false);
+                    else if (s.charAt(j) == '1') out.write(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the bytes of {@code src[off, off + len)} to the order-0 histogram {@code freq}.
+     */
+    static void count(long[] freq, byte[] src, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            freq[src[i] & 0xff]++;
         }
     }
 
     //**************************** private methods ********************************//
 
+    /**
+     * Writes the code and the length of the input.
+     *
+     * @return encoder for the input
+     */
+    private Encoder writeHeader(long[] freq, long length, BinaryOut out, Recorder rec) {
+        if (canonical) {
+            HuffmanCode code = HuffmanCode.of(freq);
+            rec.maxCodeLength = code.maxLength();
+            rec.lap(Phase.TREE);
+            code.writeLengths(out);
+            out.write(length);
+            rec.lap(Phase.HEADER);
+            return new Encoder(code, null);
+        }
+        Node root = buildTrie(freq);
+        rec.maxCodeLength = depth(root);
+        rec.lap(Phase.TREE);
+        writeTrie(root, out);
+        out.write((int) length);
+        rec.lap(Phase.HEADER);
+        Encoder encoder = root.isLeaf() || rec.maxCodeLength > HuffmanCode.MAX_LEN
+                ? new Encoder(null, buildCode(root))
+                : new Encoder(trieCode(root), null);
+        rec.lap(Phase.TREE);
+        return encoder;
+    }
+
+    private void expand(BinaryIn in, BinaryOut out, Recorder rec) {
+        if (canonical) {
+            HuffmanCode code = HuffmanCode.read(in, R);
+            long length = in.readLong();
+            rec.maxCodeLength = code.maxLength();
+            rec.lap(Phase.HEADER);
+            expandByTable(code, length, in, out);
+            rec.lap(Phase.CODE);
+            return;
+        }
+
+        Node root = readTrie(in);
+        int length = in.readInt();
+        rec.maxCodeLength = depth(root);
+        rec.lap(Phase.HEADER);
+        if (root.isLeaf() || rec.maxCodeLength > HuffmanCode.MAX_LEN) expandByTrie(root, length, in, out);
+        else expandByTable(trieCode(root), length, in, out);
+        rec.lap(Phase.CODE);
+    }
+
+    private String name() {
+        return canonical ? "HuffmanZip(canonical)" : "HuffmanZip";
+    }
+
+    // the kept histogram cleared, or a new one if another call holds it
+    private long[] takeHistogram() {
+        long[] freq = histogram.getAndSet(null);
+        if (freq == null) return new long[R];
+        Arrays.fill(freq, 0);
+        return freq;
+    }
+
     /**
      * @param freq frequency of characters
      * @return root of huffman tree
      */
-    private Node buildTrie(int[] freq) {
+    private Node buildTrie(long[] freq) {
         Queue<Node> pq = new PriorityQueue<>();
         Node a, b, parent;
         for (char c = 0; c < R; c++) {
@@ -107,6 +336,9 @@ public class HuffmanZip implements MyZip {
                 pq.add(new Node(c, freq[c]));
             }
         }
+        if (pq.isEmpty()) {
+            pq.add(new Node('\0', 0));   // empty input
+        }
         while (pq.size() > 1) {
             a = pq.remove();
             b = pq.remove();
@@ -131,6 +363,27 @@ public class HuffmanZip implements MyZip {
             codeMap.put(n.ch, code);
     }
 
+    /**
+     * @param r root of a trie no deeper than {@link HuffmanCode#MAX_LEN}
+     * @return the codes of the trie as primitive arrays
+     */
+    private HuffmanCode trieCode(Node r) {
+        int[] code = new int[R];
+        byte[] len = new byte[R];
+        buildCode(code, len, r, 0, 0);
+        return new HuffmanCode(code, len);
+    }
+
+    private void buildCode(int[] code, byte[] len, Node n, int c, int l) {
+        if (n.isLeaf()) {
+            code[n.ch] = c;
+            len[n.ch] = (byte) l;
+            return;
+        }
+        buildCode(code, len, n.left, c << 1, l + 1);
+        buildCode(code, len, n.right, (c << 1) | 1, l + 1);
+    }
+
     /**
      * output using pre-order traversal
      * internal node {@code 0/false}, leaf {@code 1/true}
@@ -148,17 +401,44 @@ public class HuffmanZip implements MyZip {
         writeTrie(n.right, out);
     }
 
-    private void writeCode(Map<Character, String> codeMap, char[] input, BinaryOut out) {
-        String code;
-        for (int i = 0; i < input.length; i++) {
-            code = codeMap.get(input[i]);
-            for (int j = 0; j < code.length(); j++) {
-                if (code.charAt(j) == '0') out.write(false);
-                else if (code.charAt(j) == '1') out.write(true);
+    private void expandByTable(HuffmanCode code, long length, BinaryIn in, BinaryOut out) {
+        byte[] buf = BufferPool.shared().bytes(BUFFER);
+        int pos = 0;
+        for (long i = 0; i < length; i++) {
+            buf[pos++] = (byte) code.decode(in);
+            if (pos == buf.length) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+        }
+        out.write(buf, 0, pos);
+        BufferPool.shared().release(buf);
+    }
+
+    /**
+     * bit-by-bit decoding, used when the trie is too deep for {@link HuffmanCode}
+     */
+    private void expandByTrie(Node root, int length, BinaryIn in, BinaryOut out) {
+        Node x;
+        for (int i = 0; i < length; i++) {
+            x = root;
+            while (!x.isLeaf()) {
+                boolean bit = in.readBoolean();
+                if (bit) x = x.right;
+                else x = x.left;
             }
+            out.write(x.ch, 8);
         }
     }
 
+    /**
+     * @return length of the longest code under {@code n}
+     */
+    private int depth(Node n) {
+        if (n.isLeaf()) return 0;
+        return 1 + Math.max(depth(n.left), depth(n.right));
+    }
+
     private Node readTrie(BinaryIn in) {
         boolean isLeaf = in.readBoolean();
         if (isLeaf)
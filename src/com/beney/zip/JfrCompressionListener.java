@@ -0,0 +1,79 @@
+package com.beney.zip;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Publishes every {@link CompressionStats} as a {@code com.beney.zip.Compression}
+ * JFR event. Costs next to nothing while no recording is running.
+ *
+ * @author Beney
+ */
+public class JfrCompressionListener implements CompressionListener {
+
+    @Override
+    public void completed(CompressionStats stats) {
+        CompressionEvent e = new CompressionEvent();
+        if (!e.isEnabled()) return;
+        e.codec = stats.codec();
+        e.operation = stats.operation().name();
+        e.bytesIn = stats.bytesIn();
+        e.bytesOut = stats.bytesOut();
+        e.totalTime = stats.totalNanos();
+        e.histogramTime = stats.nanos(CompressionStats.Phase.HISTOGRAM);
+        e.treeTime = stats.nanos(CompressionStats.Phase.TREE);
+        e.headerTime = stats.nanos(CompressionStats.Phase.HEADER);
+        e.codeTime = stats.nanos(CompressionStats.Phase.CODE);
+        e.ioTime = stats.nanos(CompressionStats.Phase.IO);
+        e.maxCodeLength = stats.maxCodeLength();
+        e.dictionarySize = stats.dictionarySize();
+        e.dictionaryResets = stats.dictionaryResets();
+        e.commit();
+    }
+
+    @Name("com.beney.zip.Compression")
+    @Label("Compression")
+    @Category("MyZip")
+    @Description("A compress or expand operation of a MyZip codec")
+    static class CompressionEvent extends Event {
+        @Label("Codec")
+        String codec;
+        @Label("Operation")
+        String operation;
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+        @Label("Total Time")
+        @Timespan
+        long totalTime;
+        @Label("Histogram Time")
+        @Timespan
+        long histogramTime;
+        @Label("Tree Time")
+        @Timespan
+        long treeTime;
+        @Label("Header Time")
+        @Timespan
+        long headerTime;
+        @Label("Code Time")
+        @Timespan
+        long codeTime;
+        @Label("I/O Time")
+        @Timespan
+        long ioTime;
+        @Label("Max Code Length")
+        int maxCodeLength;
+        @Label("Dictionary Size")
+        int dictionarySize;
+        @Label("Dictionary Resets")
+        int dictionaryResets;
+    }
+}
@@ -0,0 +1,390 @@
+package com.beney.zip;
+
+import com.beney.utils.BinaryIn;
+import com.beney.utils.BinaryOut;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * LZSS compression: a sliding-window match finder replaces repeated strings by
+ * (length, distance) pairs, and the literals, lengths and distances are then
+ * written with canonical Huffman codes, as in Deflate.
+ * <p>
+ * Matches are found through a hash of the next 3 bytes: {@code head} holds the last
+ * position with each hash and {@code prev} links every position to the previous one
+ * with the same hash. The level sets the window, how many candidates are tried, and
+ * whether a match is deferred when the next position has a longer one (lazy matching).
+ * <p>
+ * Compressed block:
+ * <pre>
+ *     5-bit code lengths of the {@value LITLEN} literal/length symbols and {@value DISTANCES} distance symbols
+ *     int length of the original block
+ *     tokens: literal code, or length code, length extra bits, distance code, distance extra bits
+ * </pre>
+ * Files and streams are cut into blocks of 4 MB as by {@link CompressingOutputStream}.
+ *
+ * @author Beney
+ */
+public class LZ77Zip implements BlockCodec {
+    private static final String SUFFIX = ".lz";
+    private static final int BUFFER = 1 << 16;
+    private static final int BLOCK = 1 << 22;  // bytes per block of a file or stream
+
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 258;
+    private static final int LENGTH_CODES = 28;    // 4 per octave of length - 3
+    private static final int LITLEN = 256 + LENGTH_CODES;
+    private static final int DISTANCES = 40;        // 2 per octave of distance - 1, up to 2^20
+    private static final int HASH_BITS = 16;
+    private static final int TOO_FAR = 4096;        // a 3-byte match further away does not pay off
+
+    /*
+     * per level, after zlib:
+     * window bits, lazy matching,
+     * good: try a quarter of the candidates once the deferred match is this long,
+     * lazy: no search when the deferred match is this long, without lazy matching
+     *       the longest match whose positions all go into the hash chains,
+     * nice: length that stops the search,
+     * chain: candidates tried
+     */
+    private static final int[][] LEVELS = {
+            {15, 0, 4, 4, 8, 4},
+            {15, 0, 4, 5, 16, 8},
+            {15, 0, 4, 6, 32, 32},
+            {15, 1, 4, 4, 16, 16},
+            {16, 1, 8, 16, 32, 32},
+            {16, 1, 8, 16, 128, 128},
+            {16, 1, 8, 32, 128, 256},
+            {17, 1, 32, 128, MAX_MATCH, 1024},
+            {17, 1, 32, MAX_MATCH, MAX_MATCH, 4096},
+    };
+
+    private final int level;
+    private final int windowBits;
+    private final boolean lazy;
+    private final int goodLength;
+    private final int lazyLength;
+    private final int niceLength;
+    private final int maxChain;
+
+    private volatile CompressionListener listener;
+
+    /**
+     * LZSS codec at level 6.
+     */
+    public LZ77Zip() {
+        this(6);
+    }
+
+    /**
+     * @param level from 1, fastest, to 9, smallest output
+     */
+    public LZ77Zip(int level) {
+        if (level < 1 || level > LEVELS.length) throw new IllegalArgumentException("Illegal value for level = " + level);
+        int[] p = LEVELS[level - 1];
+        this.level = level;
+        this.windowBits = p[0];
+        this.lazy = p[1] == 1;
+        this.goodLength = p[2];
+        this.lazyLength = p[3];
+        this.niceLength = p[4];
+        this.maxChain = p[5];
+    }
+
+    @Override
+    public void compress(String filePath) {
+        try (InputStream is = new FileInputStream(filePath);
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(filePath + SUFFIX), BUFFER)) {
+            compress(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void expand(String filePath) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(filePath), BUFFER);
+             OutputStream os = new FileOutputStream(filePath.substring(0, filePath.length() - SUFFIX.length()))) {
+            expand(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Uses blocks of 4 MB, so the larger windows have history to match against.
+     */
+    @Override
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        CompressingOutputStream.transfer(in, out, this, BLOCK);
+    }
+
+    @Override
+    public byte[] compressBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        int[] tokens = new int[len];
+        int[] litFreq = new int[LITLEN];
+        int[] distFreq = new int[DISTANCES];
+        int n = parse(src, off, len, tokens, litFreq, distFreq);
+        rec.lap(Phase.CODE);
+
+        HuffmanCode lit = HuffmanCode.of(litFreq);
+        HuffmanCode dist = HuffmanCode.of(distFreq);
+        rec.maxCodeLength = Math.max(lit.maxLength(), dist.maxLength());
+        rec.lap(Phase.TREE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(len / 2 + 256);
+        BinaryOut out = new BinaryOut(bytes);
+        lit.writeLengths(out);
+        dist.writeLengths(out);
+        out.write(len);
+        rec.lap(Phase.HEADER);
+
+        for (int i = 0; i < n; i++) {
+            int t = tokens[i];
+            if (t < 256) {
+                lit.encode(out, t);
+                continue;
+            }
+            int l = (t >>> 21) - MIN_MATCH, d = (t & ((1 << 21) - 1)) - 1;
+            int lc = lengthCode(l), dc = distanceCode(d);
+            lit.encode(out, 256 + lc);
+            if (lengthExtra(lc) > 0) out.writeBits(l & ((1 << lengthExtra(lc)) - 1), lengthExtra(lc));
+            dist.encode(out, dc);
+            if (distanceExtra(dc) > 0) out.writeBits(d & ((1 << distanceExtra(dc)) - 1), distanceExtra(dc));
+        }
+        out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, name(), Operation.COMPRESS);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The original length follows the two codes.
+     */
+    @Override
+    public long expandedLength(byte[] src, int off, int len) {
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        HuffmanCode.read(in, LITLEN);
+        HuffmanCode.read(in, DISTANCES);
+        int length = in.readInt();
+        in.close();
+        return length;
+    }
+
+    @Override
+    public byte[] expandBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        HuffmanCode lit = HuffmanCode.read(in, LITLEN);
+        HuffmanCode dist = HuffmanCode.read(in, DISTANCES);
+        int length = in.readInt();
+        if (length < 0) throw new IllegalArgumentException("Illegal block length = " + length);
+        rec.maxCodeLength = Math.max(lit.maxLength(), dist.maxLength());
+        rec.lap(Phase.HEADER);
+
+        byte[] block = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int sym = lit.decode(in);
+            if (sym < 256) {
+                block[pos++] = (byte) sym;
+                continue;
+            }
+            int lc = sym - 256;
+            int l = lengthBase(lc) + (lengthExtra(lc) > 0 ? in.readBits(lengthExtra(lc)) : 0) + MIN_MATCH;
+            int dc = dist.decode(in);
+            int d = distanceBase(dc) + (distanceExtra(dc) > 0 ? in.readBits(distanceExtra(dc)) : 0) + 1;
+            if (d > pos || l > length - pos)
+                throw new IllegalArgumentException("Illegal match: length " + l + ", distance " + d + " at " + pos);
+            if (d >= l) {
+                System.arraycopy(block, pos - d, block, pos, l);
+                pos += l;
+            } else {
+                // overlapping copy repeats the last d bytes
+                for (int end = pos + l; pos < end; pos++) {
+                    block[pos] = block[pos - d];
+                }
+            }
+        }
+        in.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = length;
+        rec.publish(listener, name(), Operation.EXPAND);
+        return block;
+    }
+
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String fileSuffix() {
+        return SUFFIX;
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * Splits the block into tokens: a literal byte, or {@code (length << 21) | distance}.
+     *
+     * @return number of tokens
+     */
+    private int parse(byte[] src, int off, int len, int[] tokens, int[] litFreq, int[] distFreq) {
+        int window = 1 << windowBits;
+        int[] head = new int[1 << HASH_BITS];
+        int[] prev = new int[Math.min(window, Integer.highestOneBit(Math.max(len, 1)) << 1)];
+        int mask = prev.length - 1;
+        Arrays.fill(head, -1);
+
+        int end = off + len, n = 0;
+        int i = off;
+        boolean pending = false;    // lazy: a match at i - 1 is waiting to see the match at i
+        int pendingLen = 0, pendingDist = 0;
+        while (i < end) {
+            int matchLen = 0, matchDist = 0;
+            if (i + MIN_MATCH <= end) {
+                int h = hash(src, i);
+                int candidate = head[h];
+                head[h] = i;
+                prev[i & mask] = candidate;
+                if (!pending || pendingLen < lazyLength) {
+                    int chain = pending && pendingLen >= goodLength ? maxChain >> 2 : maxChain;
+                    long m = longestMatch(src, i, end, candidate, Math.min(window, prev.length), mask, prev, chain);
+                    matchLen = (int) (m >>> 32);
+                    matchDist = (int) m;
+                    if (matchLen == MIN_MATCH && matchDist > TOO_FAR) matchLen = 0;
+                }
+            }
+            if (!lazy && matchLen >= MIN_MATCH) {
+                n = emitMatch(tokens, n, matchLen, matchDist, litFreq, distFreq);
+                if (matchLen <= lazyLength) insert(src, i + 1, Math.min(i + matchLen, end - MIN_MATCH + 1), head, prev, mask);
+                i += matchLen;
+            } else if (pending && pendingLen >= MIN_MATCH && matchLen <= pendingLen) {
+                // the match at i - 1 is at least as long: take it
+                n = emitMatch(tokens, n, pendingLen, pendingDist, litFreq, distFreq);
+                int stop = i - 1 + pendingLen;
+                insert(src, i + 1, Math.min(stop, end - MIN_MATCH + 1), head, prev, mask);
+                i = stop;
+                pending = false;
+            } else {
+                int lit = lazy ? (pending ? src[i - 1] & 0xff : -1) : src[i] & 0xff;
+                if (lit >= 0) {
+                    tokens[n++] = lit;
+                    litFreq[lit]++;
+                }
+                if (lazy) {
+                    pending = true;
+                    pendingLen = matchLen;
+                    pendingDist = matchDist;
+                }
+                i++;
+            }
+        }
+        if (pending) {
+            // a match found at the last byte is shorter than MIN_MATCH
+            tokens[n++] = src[end - 1] & 0xff;
+            litFreq[src[end - 1] & 0xff]++;
+        }
+        return n;
+    }
+
+    /**
+     * Walks the hash chain from {@code candidate}.
+     *
+     * @return {@code (length << 32) | distance} of the longest match, length 0 if none
+     */
+    private long longestMatch(byte[] src, int pos, int end, int candidate, int window, int mask, int[] prev, int chain) {
+        int max = Math.min(MAX_MATCH, end - pos);
+        int best = MIN_MATCH - 1, bestDist = 0;
+        for (; candidate >= 0 && pos - candidate < window && chain > 0; chain--) {
+            // the bytes that would make the match longer than the best are checked first
+            if (src[candidate + best] == src[pos + best] && src[candidate + best - 1] == src[pos + best - 1]
+                    && src[candidate] == src[pos] && src[candidate + 1] == src[pos + 1]) {
+                int l = 2;
+                while (l < max && src[candidate + l] == src[pos + l]) l++;
+                if (l > best) {
+                    best = l;
+                    bestDist = pos - candidate;
+                    if (l >= niceLength || l == max) break;
+                }
+            }
+            candidate = prev[candidate & mask];
+        }
+        if (best < MIN_MATCH) return 0;
+        return ((long) best << 32) | bestDist;
+    }
+
+    // add positions [from, to) to the hash chains
+    private static void insert(byte[] src, int from, int to, int[] head, int[] prev, int mask) {
+        for (int j = from; j < to; j++) {
+            int h = hash(src, j);
+            prev[j & mask] = head[h];
+            head[h] = j;
+        }
+    }
+
+    private static int emitMatch(int[] tokens, int n, int length, int distance, int[] litFreq, int[] distFreq) {
+        tokens[n] = (length << 21) | distance;
+        litFreq[256 + lengthCode(length - MIN_MATCH)]++;
+        distFreq[distanceCode(distance - 1)]++;
+        return n + 1;
+    }
+
+    private static int hash(byte[] src, int i) {
+        int key = ((src[i] & 0xff) << 16) | ((src[i + 1] & 0xff) << 8) | (src[i + 2] & 0xff);
+        return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    // l = length - MIN_MATCH, 0 .. 255
+    private static int lengthCode(int l) {
+        if (l < 8) return l;
+        int b = 31 - Integer.numberOfLeadingZeros(l);
+        return 4 * (b - 1) + ((l >>> (b - 2)) & 3);
+    }
+
+    private static int lengthExtra(int code) {
+        return code < 8 ? 0 : code / 4 - 1;
+    }
+
+    private static int lengthBase(int code) {
+        if (code < 8) return code;
+        return (4 | (code & 3)) << lengthExtra(code);
+    }
+
+    // d = distance - 1, 0 .. 2^20 - 1
+    private static int distanceCode(int d) {
+        if (d < 4) return d;
+        int b = 31 - Integer.numberOfLeadingZeros(d);
+        return 2 * b + ((d >>> (b - 1)) & 1);
+    }
+
+    private static int distanceExtra(int code) {
+        return code < 4 ? 0 : code / 2 - 1;
+    }
+
+    private static int distanceBase(int code) {
+        if (code < 4) return code;
+        return (2 | (code & 1)) << distanceExtra(code);
+    }
+
+    private String name() {
+        return "LZ77Zip(" + level + ")";
+    }
+}
@@ -0,0 +1,80 @@
+package com.beney.zip;
+
+import java.util.Arrays;
+
+/**
+ * LZW dictionary mapping (prefix code, next byte) to the code of the extended
+ * string, stored in an open-addressing hash table of {@code int}s.
+ * <p>
+ * Single bytes are not stored, the code of byte {@code b} is {@code b} itself.
+ *
+ * @author Beney
+ */
+final class LZWDictionary {
+    private final int[] keys;   // (prefix << 8 | byte) + 1, 0 marks an empty slot
+    private final int[] codes;
+    private final int[] used;   // slots filled, in order
+    private final int mask;
+    private final int shift;
+    private int size;
+
+    /**
+     * @param capacity most codes the dictionary will hold
+     */
+    LZWDictionary(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 2;   // load factor <= 1/2
+        keys = new int[size];
+        codes = new int[size];
+        used = new int[Math.max(capacity, 2)];
+        mask = size - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(size);
+    }
+
+    /**
+     * @return code of the string {@code prefix + b}, or {@code -1} if absent
+     */
+    int get(int prefix, int b) {
+        int key = ((prefix << 8) | b) + 1;
+        for (int i = hash(key); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return codes[i];
+            if (keys[i] == 0) return -1;
+        }
+    }
+
+    /**
+     * Adds the string {@code prefix + b}, which must not be present yet.
+     */
+    void put(int prefix, int b, int code) {
+        int key = ((prefix << 8) | b) + 1;
+        int i = hash(key);
+        while (keys[i] != 0) i = (i + 1) & mask;
+        keys[i] = key;
+        codes[i] = code;
+        used[size++] = i;
+    }
+
+    /**
+     * Removes all strings, in time proportional to their number rather than to the capacity.
+     */
+    void clear() {
+        if (size > used.length / 4) {
+            Arrays.fill(keys, 0);
+        } else {
+            for (int k = 0; k < size; k++) {
+                keys[used[k]] = 0;
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * @return most codes the dictionary holds
+     */
+    int capacity() {
+        return used.length;
+    }
+
+    private int hash(int key) {
+        return (key * 0x9E3779B1) >>> shift;
+    }
+}
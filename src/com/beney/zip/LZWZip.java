@@ -1,91 +1,398 @@
 package com.beney.zip;
 
-import com.beney.common.TernarySearchTrie;
 import com.beney.utils.BinaryIn;
 import com.beney.utils.BinaryOut;
+import com.beney.utils.BufferPool;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * LZW compression with two formats:
+ * <ul>
+ *     <li>fixed: 12-bit codewords, the dictionary freezes once its 4096 codes are assigned</li>
+ *     <li>variable: a header byte holding the maximum width, then codewords growing from
+ *     9 bits up to that width, and a {@code CLEAR} code that resets the dictionary when
+ *     the compression ratio starts dropping</li>
+ * </ul>
+ *
  * @author Beney
  */
-public class LZWZip implements MyZip {
+public class LZWZip implements BlockCodec {
 
     private static final int R = 256;
     private static final int W = 12;    // codeword width
     private static final int L = 4096;  // number of codeword = 2^W
     private static final String SUFFIX = ".lzw";
+    private static final int BUFFER = 1 << 16;  // bytes of raw data read at a time
+
+    private static final int CLEAR = R + 1;     // resets the dictionary, variable format only
+    private static final int MIN_WIDTH = 9;     // first codeword width of the variable format
+    private static final int MAX_WIDTH = 20;    // largest configurable maximum width
+    private static final int CHECK_GAP = 1 << 14;   // input bytes between two ratio checks
+
+    private final boolean variable;
+    private final int maxWidth;
+
+    private volatile CompressionListener listener;
+
+    // working tables of the last call, taken by the next one instead of allocating its own
+    private final AtomicReference<Tables> tables = new AtomicReference<>();
 
     private BinaryIn in = null;
     private BinaryOut out = null;
 
+    /**
+     * LZW codec with fixed 12-bit codewords.
+     */
+    public LZWZip() {
+        variable = false;
+        maxWidth = W;
+    }
+
+    /**
+     * LZW codec with codewords growing from {@value MIN_WIDTH} bits up to {@code maxWidth} bits.
+     *
+     * @param maxWidth maximum codeword width, between {@value MIN_WIDTH} and {@value MAX_WIDTH}
+     */
+    public LZWZip(int maxWidth) {
+        if (maxWidth < MIN_WIDTH || maxWidth > MAX_WIDTH)
+            throw new IllegalArgumentException("Illegal value for maxWidth = " + maxWidth);
+        variable = true;
+        this.maxWidth = maxWidth;
+    }
+
     @Override
     public void compress(String filePath) {
-        try {
-            in = new BinaryIn(new FileInputStream(filePath));
-            out = new BinaryOut(new FileOutputStream(filePath + SUFFIX));
-            TernarySearchTrie<Integer> symbolTable = new TernarySearchTrie<>();
-            for (int i = 0; i < R; i++) {
-                symbolTable.put("" + (char) i, i);
-            }
-
-            String input = in.readString();
-            int code = R + 1;
-            while (input.length() > 0) {
-                String key = symbolTable.longestPrefixOf(input);
-                out.write(symbolTable.get(key), W);     // output key's encoding
-                int t = key.length();
-                if (t < input.length() && code < L) {   // add key to symbol table
-                    symbolTable.put(input.substring(0, t + 1), code++);
-                }
-                input = input.substring(t);     // scan past key in input
-            }
-            out.write(R, W);
+        Recorder rec = new Recorder();
+        try (InputStream is = new FileInputStream(filePath)) {
+            out = new BinaryOut(filePath + SUFFIX);
+            compress(is, out, rec);
             out.close();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        rec.lap(Phase.IO);
+        rec.bytesOut = out.bytesWritten();
+        rec.publish(listener, name(), Operation.COMPRESS);
     }
 
     @Override
     public void expand(String filePath) {
+        Recorder rec = new Recorder();
+        in = new BinaryIn(filePath);
+        out = new BinaryOut(filePath.substring(0, filePath.length() - SUFFIX.length()));
+        rec.lap(Phase.IO);
+        expand(in, out, rec);
+        in.close();
+        out.close();
+        rec.lap(Phase.IO);
+        rec.bytesIn = new File(filePath).length();
+        rec.bytesOut = out.bytesWritten();
+        rec.publish(listener, name(), Operation.EXPAND);
+    }
+
+    @Override
+    public byte[] compressBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryOut out = new BinaryOut(bytes);
+        try {
+            compress(new ByteArrayInputStream(src, off, len), out, rec);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // not thrown by in-memory streams
+        }
+        out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, name(), Operation.COMPRESS);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public byte[] expandBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryOut out = new BinaryOut(bytes);
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        expand(in, out, rec);
+        in.close();
+        out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, name(), Operation.EXPAND);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String fileSuffix() {
+        return SUFFIX;
+    }
+
+    @Override
+    public void reset() {
+        in = null;
+        out = null;
+        Tables t = tables.getAndSet(null);
+        if (t != null) {
+            t.clear();
+            tables.compareAndSet(null, t);
+        }
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * Streams the input once, extending the current match one byte at a time
+     * through the (prefix code, byte) dictionary.
+     */
+    private void compress(InputStream is, BinaryOut out, Recorder rec) throws IOException {
+        if (variable) out.write(maxWidth, 8);
+        rec.lap(Phase.HEADER);
+
+        Codewords cw = new Codewords(maxWidth);
+        Tables t = takeTables(cw.limit);
+        LZWDictionary symbolTable = t.dictionary();
+        byte[] buf = BufferPool.shared().bytes(BUFFER);
         try {
-            in = new BinaryIn(new FileInputStream(filePath));
-            out = new BinaryOut(new FileOutputStream(filePath.substring(0, filePath.length() - SUFFIX.length())));
-            String[] st = new String[L];
-            int i;
-            for (i = 0; i < R; i++) { // initialize symbol table with all 1-character strings
-                st[i] = "" + (char) i;
+            compress(is, out, rec, cw, symbolTable, buf);
+        } finally {
+            BufferPool.shared().release(buf);
+        }
+        tables.set(t);
+    }
+
+    private void compress(InputStream is, BinaryOut out, Recorder rec, Codewords cw,
+                          LZWDictionary symbolTable, byte[] buf) throws IOException {
+        int code = cw.first;
+        int match = -1;     // code of the current match, -1 before the first byte
+        long bytesIn = 0, bitsOut = 0, checkpoint = CHECK_GAP, ratio = 0;   // since the last CLEAR
+        int resets = 0;
+        for (int k; (k = is.read(buf)) != -1; ) {
+            rec.lap(Phase.IO);
+            rec.bytesIn += k;
+            for (int i = 0; i < k; i++) {
+                int c = buf[i] & 0xff;
+                bytesIn++;
+                if (match == -1) {
+                    match = c;
+                    continue;
+                }
+                int next = symbolTable.get(match, c);
+                if (next != -1) {
+                    match = next;
+                    continue;
+                }
+                bitsOut += cw.width;
+                out.write(match, cw.width);     // output the longest match
+                cw.advance();
+                if (code < cw.limit) {          // add match + c to symbol table
+                    symbolTable.put(match, c, code++);
+                } else if (variable && bytesIn >= checkpoint) {
+                    // dictionary is full, start over once it stops paying off
+                    long current = (bytesIn << 16) / bitsOut;
+                    if (current >= ratio) {
+                        ratio = current;
+                        checkpoint = bytesIn + CHECK_GAP;
+                    } else {
+                        out.write(CLEAR, cw.width);
+                        resets++;
+                        cw.reset();
+                        symbolTable.clear();
+                        code = cw.first;
+                        bytesIn = 1;
+                        bitsOut = 0;
+                        checkpoint = CHECK_GAP;
+                        ratio = 0;
+                    }
+                }
+                match = c;
             }
-            st[i++] = ""; // unused lookahead for EOF
-            int codeword = in.readInt(W);
+            rec.lap(Phase.CODE);
+        }
+        if (match != -1) {
+            out.write(match, cw.width);
+            cw.advance();
+        }
+        out.write(R, cw.width);
+        rec.lap(Phase.CODE);
+        rec.dictionarySize = code - cw.first;
+        rec.dictionaryResets = resets;
+    }
+
+    private void expand(BinaryIn in, BinaryOut out, Recorder rec) {
+        int width = variable ? in.readInt(8) : W;
+        if (width < MIN_WIDTH || width > MAX_WIDTH)
+            throw new IllegalArgumentException("Illegal codeword width = " + width);
+        rec.lap(Phase.HEADER);
+
+        Codewords cw = new Codewords(width);
+        Tables t = takeTables(cw.limit);
+        t.expanding();
+        byte[] buf = BufferPool.shared().bytes(Math.max(BUFFER, cw.limit));
+        try {
+            expand(in, out, rec, cw, t.prefix, t.suffix, t.scratch, buf);
+        } finally {
+            BufferPool.shared().release(buf);
+        }
+        tables.set(t);
+    }
+
+    /**
+     * @param prefix  code i is the string of prefix[i] followed by suffix[i]
+     * @param scratch strings are rebuilt backwards, ending at scratch.length
+     */
+    private void expand(BinaryIn in, BinaryOut out, Recorder rec, Codewords cw,
+                        int[] prefix, byte[] suffix, byte[] scratch, byte[] buf) {
+        int pos = 0;
+        int i = cw.first;
+        int prev = -1;      // previous codeword, -1 at the start and after CLEAR
+        int resets = 0;
+        while (true) {
+            int codeword = in.readInt(cw.width);
             if (codeword == R) {
-                return; // empty string
+                break;
             }
-            String val = st[codeword];
-            while (true) {
-                out.write(val);
-                codeword = in.readInt(W);
-                if (codeword == R) {
-                    break;
-                }
-                String s = st[codeword];
-                if (i == codeword) s = val + val.charAt(0);
-                if (i < L) st[i++] = val + s.charAt(0);
-                val = s;
+            if (variable && codeword == CLEAR) {
+                resets++;
+                cw.reset();
+                i = cw.first;
+                prev = -1;
+                continue;
             }
-            out.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            cw.advance();
+            int start;
+            if (codeword < i) {
+                start = unwind(codeword, prefix, suffix, scratch, scratch.length);
+            } else if (codeword == i && prev != -1) {
+                // string not in the table yet: previous string + its own first char
+                start = unwind(prev, prefix, suffix, scratch, scratch.length - 1);
+                scratch[scratch.length - 1] = scratch[start];
+            } else {
+                throw new IllegalArgumentException("Illegal codeword = " + codeword);
+            }
+            if (prev != -1 && i < cw.limit) {   // add previous string + first char
+                prefix[i] = prev;
+                suffix[i] = scratch[start];
+                i++;
+            }
+            prev = codeword;
+
+            int len = scratch.length - start;
+            if (pos + len > buf.length) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+            System.arraycopy(scratch, start, buf, pos, len);
+            pos += len;
         }
+        out.write(buf, 0, pos);
+        rec.lap(Phase.CODE);
+        rec.dictionarySize = i - cw.first;
+        rec.dictionaryResets = resets;
+    }
 
+    private String name() {
+        return variable ? "LZWZip(" + maxWidth + ")" : "LZWZip";
     }
 
-    @Override
-    public String fileSuffix() {
-        return SUFFIX;
+    // the kept tables if they fit limit codes, or new ones if another call holds them
+    private Tables takeTables(int limit) {
+        Tables t = tables.getAndSet(null);
+        if (t == null || t.limit != limit) return new Tables(limit);
+        t.clear();
+        return t;
+    }
+
+    /**
+     * Writes the string of {@code code} backwards into {@code scratch}, ending before {@code end}.
+     *
+     * @return index of the first char of the string
+     */
+    private static int unwind(int code, int[] prefix, byte[] suffix, byte[] scratch, int end) {
+        while (code >= R) {
+            scratch[--end] = suffix[code];
+            code = prefix[code];
+        }
+        scratch[--end] = (byte) code;
+        return end;
+    }
+
+    /**
+     * Dictionary of the encoder and string table of the decoder for {@code limit}
+     * codes, each built on first use.
+     */
+    private static final class Tables {
+        private final int limit;
+        private LZWDictionary dictionary;
+        private int[] prefix;
+        private byte[] suffix;
+        private byte[] scratch;
+
+        Tables(int limit) {
+            this.limit = limit;
+        }
+
+        LZWDictionary dictionary() {
+            if (dictionary == null) dictionary = new LZWDictionary(limit);
+            return dictionary;
+        }
+
+        void expanding() {
+            if (prefix != null) return;
+            prefix = new int[limit];
+            suffix = new byte[limit];
+            scratch = new byte[limit];
+        }
+
+        // the decoder overwrites its table before reading it, only the dictionary needs clearing
+        void clear() {
+            if (dictionary != null) dictionary.clear();
+        }
+    }
+
+    /**
+     * Codeword width shared by encoder and decoder. Both count the codewords
+     * carrying data, which bounds the largest code the encoder can emit, so
+     * the width grows at the same codeword on both sides.
+     */
+    private final class Codewords {
+        private final int limit;    // number of codes, 2^maxWidth
+        private final int first;    // first code given to a multi-byte string
+        private int next;           // codes that may have been emitted so far
+        private int width;
+
+        Codewords(int maxWidth) {
+            limit = 1 << maxWidth;
+            first = variable ? CLEAR + 1 : R + 1;
+            reset();
+        }
+
+        void reset() {
+            next = first;
+            width = variable ? MIN_WIDTH : W;
+        }
+
+        // a codeword carrying data was written or read
+        void advance() {
+            if (next < limit) next++;
+            if (next > (1 << width)) width++;
+        }
     }
 }
@@ -1,5 +1,9 @@
 package com.beney.zip;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  *
  *
@@ -20,6 +24,39 @@ public interface MyZip {
      */
     void expand(String filePath);
 
+    /**
+     * compress everything left in {@code in} into {@code out}, neither stream is closed
+     *
+     * @param in  raw data
+     * @param out receives the compressed stream
+     * @throws IOException if reading or writing fails
+     */
+    void compress(InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * uncompress a stream produced by {@link #compress(InputStream, OutputStream)},
+     * neither stream is closed
+     *
+     * @param in  the compressed stream
+     * @param out receives the raw data
+     * @throws IOException if reading or writing fails
+     */
+    void expand(InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * clear what the last operation left in this codec, keeping the working tables it
+     * reuses from one input to the next; the codec then behaves as a new instance
+     */
+    default void reset() {
+    }
+
+    /**
+     * publish the {@link CompressionStats} of every following operation to {@code listener}
+     *
+     * @param listener receives the stats, {@code null} to stop publishing
+     */
+    void setListener(CompressionListener listener);
+
     /**
      *
      * @return suffix of compressed file
@@ -0,0 +1,525 @@
+package com.beney.zip;
+
+import com.beney.utils.BinaryIn;
+import com.beney.utils.BinaryOut;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the file into fixed-size blocks and compresses them concurrently, each
+ * block independently with its own Huffman code or LZW dictionary.
+ * <p>
+ * Compressed file: a version byte, then for every block in order its original
+ * length, its compressed length and the compressed bytes, ended by a length of 0.
+ * Version 2 adds a footer indexing the blocks, so they can be decoded in parallel
+ * and a byte range can be expanded without decoding what comes before it:
+ * <pre>
+ *     int block count
+ *     per block: long compressed offset, long original offset, int original length, int compressed length
+ *     long offset of the footer
+ * </pre>
+ *
+ * @author Beney
+ */
+public class ParallelZip implements MyZip {
+    private static final String SUFFIX = ".blk";
+    private static final int VERSION = 2;       // version 1 has no footer
+    private static final int DEFAULT_BLOCK = 1 << 22;   // 4 MB
+    private static final int MAX_BLOCK = 1 << 28;       // largest block length accepted from a stream
+
+    private final BlockCodec codec;
+    private final int blockSize;
+    private final ExecutorService executor;
+    private final int window;       // most blocks in memory at once
+
+    private volatile CompressionListener listener;
+
+    private BinaryIn in = null;
+    private BinaryOut out = null;
+
+    /**
+     * @param codec codec of every block
+     */
+    public ParallelZip(BlockCodec codec) {
+        this(codec, DEFAULT_BLOCK);
+    }
+
+    /**
+     * @param codec     codec of every block
+     * @param blockSize bytes per block
+     */
+    public ParallelZip(BlockCodec codec, int blockSize) {
+        this(codec, blockSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param codec     codec of every block
+     * @param blockSize bytes per block
+     * @param executor  runs the block tasks
+     */
+    public ParallelZip(BlockCodec codec, int blockSize, ExecutorService executor) {
+        if (blockSize < 1) throw new IllegalArgumentException("Illegal value for blockSize = " + blockSize);
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        int threads = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.window = 2 * threads;
+    }
+
+    /**
+     * Reads blocks while earlier ones are being compressed, and writes them out in
+     * order, keeping at most {@code 2 * threads} blocks in memory.
+     */
+    @Override
+    public void compress(String filePath) {
+        Recorder rec = new Recorder();
+        try (InputStream is = new FileInputStream(filePath)) {
+            out = new BinaryOut(filePath + fileSuffix());
+            compress(is, out, rec);
+            out.close();
+            checkOut();
+        } catch (IOException | ExecutionException e) {
+            e.printStackTrace();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        rec.lap(Phase.IO);
+        rec.bytesOut = out.bytesWritten();
+        rec.publish(listener, name(), Operation.COMPRESS);
+    }
+
+    /**
+     * Same as {@link #compress(String)}, the footer included. Neither stream is closed.
+     */
+    @Override
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        Recorder rec = new Recorder();
+        this.out = new BinaryOut(out);
+        try {
+            compress(in, this.out, rec);
+            this.out.flush();
+            checkOut();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress block", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            this.out.release();
+        }
+        rec.lap(Phase.IO);
+        rec.bytesOut = this.out.bytesWritten();
+        rec.publish(listener, name(), Operation.COMPRESS);
+    }
+
+    /**
+     * Decodes the blocks in parallel, writing them out in order.
+     */
+    @Override
+    public void expand(String filePath) {
+        Recorder rec = new Recorder();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            int version = readVersion(channel);
+            out = new BinaryOut(filePath.substring(0, filePath.length() - fileSuffix().length()));
+            if (version == 1) {
+                in = new BinaryIn(filePath);
+                expandSequentially(in, rec);
+                in.close();
+            } else {
+                expandIndexed(channel, rec);
+            }
+            out.close();
+            checkOut();
+        } catch (IOException | ExecutionException e) {
+            e.printStackTrace();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        rec.lap(Phase.IO);
+        rec.bytesIn = new File(filePath).length();
+        rec.bytesOut = out.bytesWritten();
+        rec.publish(listener, name(), Operation.EXPAND);
+    }
+
+    /**
+     * Decodes the blocks in parallel as they are read, then reads past the footer.
+     * {@code in} is read ahead, see {@link BinaryIn}, so it may be left anywhere past
+     * the end of the container; neither stream is closed.
+     */
+    @Override
+    public void expand(InputStream in, OutputStream out) throws IOException {
+        Recorder rec = new Recorder();
+        this.out = new BinaryOut(out);
+        BinaryIn bin = new BinaryIn(in);
+        try {
+            expandSequentially(bin, rec);
+            this.out.flush();
+            checkOut();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not expand block", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            bin.release();
+            this.out.release();
+        }
+        rec.lap(Phase.IO);
+        rec.bytesOut = this.out.bytesWritten();
+        rec.publish(listener, name(), Operation.EXPAND);
+    }
+
+    /**
+     * Decodes only the blocks covering the requested range of the original file.
+     *
+     * @param filePath path of the compressed file
+     * @param offset   offset of the range in the original file
+     * @param length   length of the range
+     * @return the bytes of the original file in {@code [offset, offset + length)}
+     */
+    public byte[] expandRange(String filePath, long offset, int length) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            int version = readVersion(channel);
+            if (version != VERSION) throw new IllegalArgumentException("No block index in version " + version);
+            Index index = Index.read(channel);
+            if (offset < 0 || length < 0 || offset + length > index.rawSize())
+                throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) + ") of " + index.rawSize());
+
+            byte[] range = new byte[length];
+            if (length == 0) return range;
+            int first = index.blockOf(offset), last = index.blockOf(offset + length - 1);
+            List<Future<byte[]>> blocks = new ArrayList<>();
+            for (int i = first; i <= last; i++) {
+                blocks.add(submitExpand(channel, index, i));
+            }
+            int pos = 0;
+            for (int i = first; i <= last; i++) {
+                byte[] raw = blocks.get(i - first).get();
+                int from = (int) Math.max(0, offset - index.rawOffset[i]);
+                int to = (int) Math.min(raw.length, offset + length - index.rawOffset[i]);
+                System.arraycopy(raw, from, range, pos, to - from);
+                pos += to - from;
+            }
+            return range;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not expand block", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+
+    /**
+     * Publishes one {@link CompressionStats} per file or stream; the stats of every
+     * block go to the listener of the block codec.
+     */
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String fileSuffix() {
+        return SUFFIX + codec.fileSuffix();
+    }
+
+    /**
+     * A block being compressed
+     */
+    private static class Block {
+        private final long rawOffset;
+        private final int length;
+        private final Future<byte[]> data;
+
+        Block(long rawOffset, int length, Future<byte[]> data) {
+            this.rawOffset = rawOffset;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Position of every block in the compressed and in the original file
+     */
+    private static class Index {
+        private static final int ENTRY = 24;    // bytes per block in the footer
+
+        private int size;
+        private long[] offset = new long[16];   // of the compressed bytes in the compressed file
+        private long[] rawOffset = new long[16];
+        private int[] rawLength = new int[16];
+        private int[] length = new int[16];
+
+        void add(long offset, long rawOffset, int rawLength, int length) {
+            if (size == this.offset.length) {
+                this.offset = Arrays.copyOf(this.offset, 2 * size);
+                this.rawOffset = Arrays.copyOf(this.rawOffset, 2 * size);
+                this.rawLength = Arrays.copyOf(this.rawLength, 2 * size);
+                this.length = Arrays.copyOf(this.length, 2 * size);
+            }
+            this.offset[size] = offset;
+            this.rawOffset[size] = rawOffset;
+            this.rawLength[size] = rawLength;
+            this.length[size] = length;
+            size++;
+        }
+
+        long rawSize() {
+            return size == 0 ? 0 : rawOffset[size - 1] + rawLength[size - 1];
+        }
+
+        /**
+         * @return the block holding byte {@code pos} of the original file
+         */
+        int blockOf(long pos) {
+            int i = Arrays.binarySearch(rawOffset, 0, size, pos);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        /**
+         * Writes the footer, which starts right after the blocks.
+         */
+        void write(BinaryOut out) {
+            long footer = size == 0 ? 5 : offset[size - 1] + length[size - 1] + 4;
+            out.write(size);
+            for (int i = 0; i < size; i++) {
+                out.write(offset[i]);
+                out.write(rawOffset[i]);
+                out.write(rawLength[i]);
+                out.write(length[i]);
+            }
+            out.write(footer);
+        }
+
+        static Index read(FileChannel channel) throws IOException {
+            ByteBuffer trailer = readFully(channel, channel.size() - 8, 8);
+            long footer = trailer.getLong();
+            int size = readFully(channel, footer, 4).getInt();
+            ByteBuffer entries = readFully(channel, footer + 4, size * ENTRY);
+            Index index = new Index();
+            for (int i = 0; i < size; i++) {
+                index.add(entries.getLong(), entries.getLong(), entries.getInt(), entries.getInt());
+            }
+            return index;
+        }
+    }
+
+    //**************************** private methods ********************************//
+
+    private void compress(InputStream is, BinaryOut out, Recorder rec) throws IOException, InterruptedException, ExecutionException {
+        Queue<Block> pending = new ArrayDeque<>();
+        try {
+            out.write(VERSION, 8);
+            Index index = new Index();
+            long rawOffset = 0;
+            while (true) {
+                byte[] block = new byte[blockSize];
+                int length = readBlock(is, block);
+                rec.lap(Phase.IO);
+                if (length == 0) break;
+                pending.add(new Block(rawOffset, length, executor.submit(() -> codec.compressBlock(block, 0, length))));
+                rawOffset += length;
+                if (pending.size() >= window) {
+                    writeBlock(pending.remove(), index);
+                    checkOut();
+                }
+                rec.lap(Phase.CODE);
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(pending.remove(), index);
+            }
+            out.write(0);
+            index.write(out);
+            rec.lap(Phase.CODE);
+            rec.bytesIn = rawOffset;
+        } finally {
+            for (Block b : pending) {
+                b.data.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Decodes the blocks listed in the footer, reading them with positional reads.
+     */
+    private void expandIndexed(FileChannel channel, Recorder rec) throws IOException, InterruptedException, ExecutionException {
+        Index index = Index.read(channel);
+        rec.lap(Phase.HEADER);
+        Queue<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < index.size; i++) {
+                pending.add(submitExpand(channel, index, i));
+                if (pending.size() >= window) {
+                    writeRaw(pending.remove().get());
+                    checkOut();
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeRaw(pending.remove().get());
+            }
+        } finally {
+            for (Future<byte[]> f : pending) {
+                f.cancel(true);
+            }
+        }
+        rec.lap(Phase.CODE);
+    }
+
+    private String name() {
+        return "ParallelZip(" + codec.getClass().getSimpleName() + ")";
+    }
+
+    private void writeBlock(Block b, Index index) throws InterruptedException, ExecutionException {
+        byte[] data = b.data.get();
+        long offset = index.size == 0 ? 1 : index.offset[index.size - 1] + index.length[index.size - 1];
+        index.add(offset + 8, b.rawOffset, b.length, data.length);
+        out.write(b.length);
+        out.write(data.length);
+        out.write(data, 0, data.length);
+    }
+
+    private void writeRaw(byte[] raw) {
+        out.write(raw, 0, raw.length);
+    }
+
+    /**
+     * Throws the first write failure of {@link #out}, which {@link BinaryOut} only records.
+     */
+    private void checkOut() throws IOException {
+        IOException e = out.error();
+        if (e != null) throw new IOException("Could not write output", e);
+    }
+
+    private Future<byte[]> submitExpand(FileChannel channel, Index index, int i) {
+        long offset = index.offset[i];
+        int length = index.length[i];
+        return executor.submit(() -> {
+            ByteBuffer block = readFully(channel, offset, length);
+            return codec.expandBlock(block.array(), 0, length);
+        });
+    }
+
+    /**
+     * Reads the blocks one after another, decoding them in parallel; version 1
+     * has no footer and streams cannot seek to it. The footer of version 2 is read
+     * past afterwards, so {@code bytesIn} is the whole container, as for files.
+     */
+    private void expandSequentially(BinaryIn in, Recorder rec) throws IOException, InterruptedException, ExecutionException {
+        try {
+            expandBlocks(in, rec);
+        } catch (NoSuchElementException e) {
+            throw new EOFException("Truncated container");
+        }
+    }
+
+    private void expandBlocks(BinaryIn in, Recorder rec) throws IOException, InterruptedException, ExecutionException {
+        int version = in.readInt(8);
+        if (version < 1 || version > VERSION) throw new IllegalArgumentException("Illegal version = " + version);
+        rec.bytesIn = 5;    // version and end marker
+        int blocks = 0;
+        Queue<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length == 0) break;
+                blocks++;
+                int compressed = in.readInt();
+                if (length < 0 || length > MAX_BLOCK || compressed < 0 || compressed > MAX_BLOCK)
+                    throw new IOException("Corrupt block length: " + length + " bytes, " + compressed + " compressed");
+                byte[] block = new byte[compressed];
+                in.read(block, 0, block.length);
+                rec.bytesIn += 8 + block.length;
+                rec.lap(Phase.IO);
+                pending.add(executor.submit(() -> codec.expandBlock(block, 0, block.length)));
+                if (pending.size() >= window) {
+                    writeRaw(pending.remove().get());
+                    checkOut();
+                }
+                rec.lap(Phase.CODE);
+            }
+            while (!pending.isEmpty()) {
+                writeRaw(pending.remove().get());
+            }
+            rec.lap(Phase.CODE);
+        } finally {
+            for (Future<byte[]> f : pending) {
+                f.cancel(true);
+            }
+        }
+        if (version > 1) {
+            int size = in.readInt();
+            if (size != blocks) throw new IllegalArgumentException("Footer lists " + size + " blocks of " + blocks);
+            for (int i = 0; i < size; i++) {
+                in.readLong();
+                in.readLong();
+                in.readLong();      // original and compressed length
+            }
+            in.readLong();
+            rec.bytesIn += 4 + (long) size * Index.ENTRY + 8;
+            rec.lap(Phase.IO);
+        }
+    }
+
+    private static int readVersion(FileChannel channel) throws IOException {
+        int version = readFully(channel, 0, 1).get() & 0xff;
+        if (version < 1 || version > VERSION) throw new IllegalArgumentException("Illegal version = " + version);
+        return version;
+    }
+
+    /**
+     * Reads {@code length} bytes at {@code position}; positional reads are safe
+     * to run concurrently on one channel.
+     */
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                throw new IOException("Unexpected end of file");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @return bytes read into {@code block}, less than its length only at the end of {@code is}
+     */
+    private int readBlock(InputStream is, byte[] block) throws IOException {
+        int length = 0;
+        for (int k; length < block.length && (k = is.read(block, length, block.length - length)) != -1; ) {
+            length += k;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,273 @@
+package com.beney.zip;
+
+import com.beney.utils.BinaryIn;
+import com.beney.utils.BinaryOut;
+import com.beney.zip.CompressionStats.Operation;
+import com.beney.zip.CompressionStats.Phase;
+import com.beney.zip.CompressionStats.Recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Order-0 range ANS. Spends a fractional number of bits per byte, close to the
+ * entropy of the order-0 histogram, where Huffman spends whole bits.
+ * <p>
+ * The histogram is normalized to a total of {@code 2^}{@value SCALE_BITS}. Four
+ * states take turns, byte {@code i} going to state {@code i % 4}, so the decoder
+ * runs four independent dependency chains. Each state is a 31-bit integer kept in
+ * {@code [2^23, 2^31)} by moving whole bytes in and out.
+ * <p>
+ * Compressed block:
+ * <pre>
+ *     int length of the original block
+ *     256 bits marking the bytes present, then 14 bits of (frequency - 1) for each of them
+ *     the 4 final states, 4 bytes each, then the bytes pushed out while encoding
+ * </pre>
+ * Files and streams are cut into blocks as by {@link CompressingOutputStream}.
+ *
+ * @author Beney
+ */
+public class RansZip implements BlockCodec {
+    private static final String SUFFIX = ".rans";
+    private static final int BUFFER = 1 << 16;
+    private static final int R = 256;
+
+    private static final int SCALE_BITS = 14;
+    private static final int M = 1 << SCALE_BITS;  // total of the normalized frequencies
+    private static final int L = 1 << 23;           // lower bound of a state
+    private static final int STATES = 4;
+
+    private volatile CompressionListener listener;
+
+    @Override
+    public void compress(String filePath) {
+        try (InputStream is = new FileInputStream(filePath);
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(filePath + SUFFIX), BUFFER)) {
+            compress(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void expand(String filePath) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(filePath), BUFFER);
+             OutputStream os = new FileOutputStream(filePath.substring(0, filePath.length() - SUFFIX.length()))) {
+            expand(is, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public byte[] compressBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        long[] count = new long[R];
+        HuffmanZip.count(count, src, off, len);
+        rec.lap(Phase.HISTOGRAM);
+        int[] freq = normalize(count, len);
+        int[] start = new int[R];
+        for (int s = 1; s < R; s++) {
+            start[s] = start[s - 1] + freq[s - 1];
+        }
+        rec.lap(Phase.TREE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(len / 2 + 64);
+        BinaryOut out = new BinaryOut(bytes);
+        out.write(len);
+        for (int s = 0; s < R; s++) {
+            out.write(freq[s] > 0);
+        }
+        for (int s = 0; s < R; s++) {
+            if (freq[s] > 0) out.write(freq[s] - 1, SCALE_BITS);
+        }
+        out.flush();
+        rec.lap(Phase.HEADER);
+
+        // encode backwards, the decoder reads forwards
+        long[] bound = new long[R];     // a state at or above the bound must push bytes out first
+        for (int s = 0; s < R; s++) {
+            bound[s] = (long) ((L >>> SCALE_BITS) << 8) * freq[s];
+        }
+        byte[] buf = new byte[len + (len >>> 1) + 4 * STATES + 16];
+        int p = buf.length;
+        int[] x = {L, L, L, L};
+        for (int i = off + len - 1; i >= off; i--) {
+            int s = src[i] & 0xff, j = (i - off) & (STATES - 1);
+            int xs = x[j];
+            while (xs >= bound[s]) {
+                if (p == 4 * STATES) {
+                    p += buf.length;
+                    buf = grow(buf, p - buf.length);
+                }
+                buf[--p] = (byte) xs;
+                xs >>>= 8;
+            }
+            x[j] = ((xs / freq[s]) << SCALE_BITS) + (xs % freq[s]) + start[s];
+        }
+        for (int j = STATES - 1; j >= 0; j--) {
+            buf[--p] = (byte) (x[j] >>> 24);
+            buf[--p] = (byte) (x[j] >>> 16);
+            buf[--p] = (byte) (x[j] >>> 8);
+            buf[--p] = (byte) x[j];
+        }
+        out.write(buf, p, buf.length - p);
+        out.close();
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = bytes.size();
+        rec.publish(listener, "RansZip", Operation.COMPRESS);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The block starts with its original length.
+     */
+    @Override
+    public long expandedLength(byte[] src, int off, int len) {
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        int length = in.readInt();
+        in.close();
+        return length;
+    }
+
+    @Override
+    public byte[] expandBlock(byte[] src, int off, int len) {
+        Recorder rec = new Recorder();
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(src, off, len));
+        int length = in.readInt();
+        if (length < 0) throw new IllegalArgumentException("Illegal block length = " + length);
+        boolean[] present = new boolean[R];
+        int symbols = 0;
+        for (int s = 0; s < R; s++) {
+            present[s] = in.readBoolean();
+            if (present[s]) symbols++;
+        }
+        // slot m of [0, M) decodes to sym[m], and packs (frequency << SCALE_BITS) | (m - start)
+        byte[] sym = new byte[M];
+        int[] slot = new int[M];
+        int start = 0;
+        for (int s = 0; s < R; s++) {
+            if (!present[s]) continue;
+            int f = in.readInt(SCALE_BITS) + 1;
+            if (start + f > M) throw new IllegalArgumentException("Frequencies exceed " + M);
+            for (int m = 0; m < f; m++) {
+                sym[start + m] = (byte) s;
+                slot[start + m] = (f << SCALE_BITS) | m;
+            }
+            start += f;
+        }
+        if (length > 0 && start != M) throw new IllegalArgumentException("Frequencies do not add up to " + M);
+        in.close();
+        rec.lap(Phase.HEADER);
+
+        byte[] block = new byte[length];
+        if (length > 0) decode(src, off + 4 + R / 8 + (symbols * SCALE_BITS + 7) / 8, off + len, sym, slot, block);
+        rec.lap(Phase.CODE);
+        rec.bytesIn = len;
+        rec.bytesOut = length;
+        rec.publish(listener, "RansZip", Operation.EXPAND);
+        return block;
+    }
+
+    @Override
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String fileSuffix() {
+        return SUFFIX;
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * Decodes four bytes per round, one from each state.
+     *
+     * @param p   first byte of the states
+     * @param end end of the compressed bytes
+     */
+    private static void decode(byte[] src, int p, int end, byte[] sym, int[] slot, byte[] block) {
+        if (end - p < 4 * STATES) throw new IllegalArgumentException("Missing rANS states");
+        int x0 = readState(src, p), x1 = readState(src, p + 4), x2 = readState(src, p + 8), x3 = readState(src, p + 12);
+        p += 4 * STATES;
+        final int mask = M - 1;
+        int n = block.length, i = 0;
+        try {
+            for (; i + STATES <= n; i += STATES) {
+                int m0 = x0 & mask, m1 = x1 & mask, m2 = x2 & mask, m3 = x3 & mask;
+                int e0 = slot[m0], e1 = slot[m1], e2 = slot[m2], e3 = slot[m3];
+                block[i] = sym[m0];
+                block[i + 1] = sym[m1];
+                block[i + 2] = sym[m2];
+                block[i + 3] = sym[m3];
+                x0 = (e0 >>> SCALE_BITS) * (x0 >>> SCALE_BITS) + (e0 & mask);
+                x1 = (e1 >>> SCALE_BITS) * (x1 >>> SCALE_BITS) + (e1 & mask);
+                x2 = (e2 >>> SCALE_BITS) * (x2 >>> SCALE_BITS) + (e2 & mask);
+                x3 = (e3 >>> SCALE_BITS) * (x3 >>> SCALE_BITS) + (e3 & mask);
+                while (x0 < L) x0 = (x0 << 8) | (src[p++] & 0xff);
+                while (x1 < L) x1 = (x1 << 8) | (src[p++] & 0xff);
+                while (x2 < L) x2 = (x2 << 8) | (src[p++] & 0xff);
+                while (x3 < L) x3 = (x3 << 8) | (src[p++] & 0xff);
+            }
+            int[] x = {x0, x1, x2, x3};
+            for (int j = 0; i < n; i++, j++) {
+                int m = x[j] & mask, e = slot[m];
+                block[i] = sym[m];
+                x[j] = (e >>> SCALE_BITS) * (x[j] >>> SCALE_BITS) + (e & mask);
+                while (x[j] < L) x[j] = (x[j] << 8) | (src[p++] & 0xff);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated rANS block");
+        }
+        if (p > end) throw new IllegalArgumentException("Truncated rANS block");
+    }
+
+    /**
+     * Scales the counts to a total of {@link #M}, keeping every present byte.
+     */
+    private static int[] normalize(long[] count, long total) {
+        int[] freq = new int[R];
+        if (total == 0) return freq;
+        int sum = 0, max = 0;
+        for (int s = 0; s < R; s++) {
+            if (count[s] == 0) continue;
+            freq[s] = (int) Math.max(1, (count[s] * M + total / 2) / total);
+            sum += freq[s];
+            if (freq[s] > freq[max] || freq[max] == 0) max = s;
+        }
+        // put the rounding error on the most frequent byte, or spread it if that would empty it
+        if (freq[max] + M - sum >= 1) {
+            freq[max] += M - sum;
+            return freq;
+        }
+        while (sum > M) {
+            for (int s = 0; s < R && sum > M; s++) {
+                if (freq[s] > 1) {
+                    freq[s]--;
+                    sum--;
+                }
+            }
+        }
+        return freq;
+    }
+
+    private static int readState(byte[] src, int p) {
+        return (src[p] & 0xff) | (src[p + 1] & 0xff) << 8 | (src[p + 2] & 0xff) << 16 | (src[p + 3] & 0xff) << 24;
+    }
+
+    private static byte[] grow(byte[] buf, int p) {
+        byte[] bigger = new byte[buf.length * 2];
+        System.arraycopy(buf, p, bigger, bigger.length - (buf.length - p), buf.length - p);
+        return bigger;
+    }
+}
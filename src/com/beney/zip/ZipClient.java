@@ -0,0 +1,118 @@
+package com.beney.zip;
+
+import com.beney.zip.ArchiveZip.Codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connection to a {@link ZipServer}. {@link #compress(Codec, byte[])} and
+ * {@link #expand(Codec, byte[])} wait for their answer; to keep several requests in
+ * flight, {@link #send} them and {@link #receive()} the results in the same order.
+ * Not safe for use by several threads at once.
+ *
+ * @author Beney
+ */
+public class ZipClient implements Closeable {
+    private static final int BUFFER = 1 << 16;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int sent;           // id of the next request
+    private int received;       // id of the next response
+
+    /**
+     * Connects to a server on the loopback address.
+     *
+     * @param port port of the server
+     */
+    public ZipClient(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress().getHostAddress(), port);
+    }
+
+    /**
+     * @param host host of the server
+     * @param port port of the server
+     */
+    public ZipClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER));
+    }
+
+    /**
+     * @return {@code data} compressed by {@code codec}
+     * @throws IOException if the server fails the request or the connection fails
+     */
+    public byte[] compress(Codec codec, byte[] data) throws IOException {
+        send(true, codec, data, 0, data.length);
+        return receive();
+    }
+
+    /**
+     * @return the original of {@code data}, compressed by {@code codec}
+     * @throws IOException if the server fails the request or the connection fails
+     */
+    public byte[] expand(Codec codec, byte[] data) throws IOException {
+        send(false, codec, data, 0, data.length);
+        return receive();
+    }
+
+    /**
+     * Queues a request without waiting for its answer; requests go out when the buffer
+     * fills or at the next {@link #receive()}. Nothing is received while sending, so keep
+     * the data in flight well below what the socket buffers hold, or both sides block.
+     *
+     * @param compress {@code true} to compress, {@code false} to expand
+     * @return id of the request, counting from {@code 0}
+     */
+    public int send(boolean compress, Codec codec, byte[] data, int off, int len) throws IOException {
+        if (len > ZipServer.MAX_LENGTH) throw new IllegalArgumentException("Request too large: " + len);
+        out.write(compress ? ZipServer.COMPRESS : ZipServer.EXPAND);
+        out.write(codec.ordinal());
+        out.writeInt(sent);
+        out.writeInt(len);
+        out.write(data, off, len);
+        return sent++;
+    }
+
+    /**
+     * @return the result of the oldest request not received yet
+     * @throws IOException if the server failed that request or the connection fails
+     */
+    public byte[] receive() throws IOException {
+        if (received == sent) throw new IllegalStateException("No request in flight");
+        out.flush();
+        int id = in.readInt();
+        int status = in.readUnsignedByte();
+        int length = in.readInt();
+        if (id != received || length < 0 || length > ZipServer.MAX_LENGTH)
+            throw new IOException("Malformed response: id " + id + ", length " + length);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        received++;
+        if (status != ZipServer.OK) throw new IOException(new String(data, StandardCharsets.UTF_8));
+        return data;
+    }
+
+    /**
+     * @return requests sent and not received yet
+     */
+    public int inFlight() {
+        return sent - received;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,395 @@
+package com.beney.zip;
+
+import com.beney.zip.ArchiveZip.Codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compresses and expands blocks for clients over TCP, so short-lived processes skip
+ * the start-up and warm-up of a JVM of their own. Every worker keeps its own instance
+ * of every codec, whose tables stay warm from one request to the next.
+ * <p>
+ * A connection carries any number of requests, and a client may send requests before
+ * the responses to the earlier ones arrive: they are decoded by the workers in
+ * parallel and answered in the order they came. At most {@value PIPELINE} requests of
+ * a connection are pending, and the requests and responses of all connections together
+ * are bounded by a budget of a quarter of the heap; beyond either the server stops
+ * reading until responses are written. Every request is charged, before it goes to a
+ * worker, with its data and the most its response can take: the length an expand block
+ * declares, see {@link BlockCodec#expandedLength(byte[], int, int)}, or {@value MAX_LENGTH}
+ * for a codec without one, and twice the data for a compress request. An expand request
+ * whose block declares more than {@value MAX_LENGTH} bytes is refused before it is decoded.
+ * While a connection waits for budget it may hold the data of one request uncharged.
+ * <p>
+ * Request and response, big-endian:
+ * <pre>
+ *     request:  byte operation ({@value COMPRESS} compress, {@value EXPAND} expand),
+ *               byte codec, the ordinal of an {@link Codec}, int id, int length, the data
+ *     response: int id of the request, byte status ({@value OK} or {@value ERROR}), int length,
+ *               the data, which for an error is the message in UTF-8
+ * </pre>
+ * Compressed data is the output of {@link BlockCodec#compressBlock(byte[], int, int)};
+ * {@link Codec#STORED} returns the data as it is. A request that cannot be decoded
+ * is answered with an error and the connection stays open; a malformed frame is
+ * answered with an error and closes it. See {@link ZipClient}.
+ *
+ * @author Beney
+ */
+public class ZipServer implements Closeable {
+    static final int COMPRESS = 0;
+    static final int EXPAND = 1;
+    static final int OK = 0;
+    static final int ERROR = 1;
+    static final int MAX_LENGTH = 1 << 26;     // largest request or response, 64 MB
+
+    private static final int PIPELINE = 64;     // pending requests per connection
+    private static final int BUFFER = 1 << 16;
+    private static final int HEADERS = 1 << 10;    // most bytes of codec headers a compressed block adds
+    private static final Pending END = new Pending(null, 0);     // no more responses
+    private static final int BUDGET = (int) Math.max(MAX_LENGTH,
+            Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4));    // bytes of pending requests and responses
+
+    /**
+     * A request handed to the workers, and the bytes it holds of the budget until its
+     * response is written
+     */
+    private static final class Pending {
+        private final Future<Response> response;
+        private final int bytes;
+
+        Pending(Future<Response> response, int bytes) {
+            this.response = response;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A response, written as a header and its data so the data is never copied into a frame
+     */
+    private static final class Response {
+        private final int id;
+        private final int status;
+        private final byte[] data;
+
+        Response(int id, int status, byte[] data) {
+            this.id = id;
+            this.status = status;
+            this.data = data;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(new byte[]{(byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id, (byte) status,
+                    (byte) (data.length >>> 24), (byte) (data.length >>> 16), (byte) (data.length >>> 8), (byte) data.length});
+            out.write(data);
+        }
+    }
+
+    private final ServerSocket server;
+    private final ExecutorService workers;
+    private final ThreadLocal<BlockCodec[]> codecs = ThreadLocal.withInitial(ZipServer::newCodecs);
+    private final BlockCodec[] headers = newCodecs();   // only read headers, from any thread
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threads = new AtomicInteger();
+    private final Semaphore budget = new Semaphore(BUDGET, true);
+    private volatile boolean closed;
+
+    /**
+     * Server on an ephemeral port of the loopback address, one worker per core.
+     */
+    public ZipServer() throws IOException {
+        this(0, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Server on the loopback address.
+     *
+     * @param port    port to listen on, {@code 0} for an ephemeral one, see {@link #port()}
+     * @param workers threads compressing and expanding
+     */
+    public ZipServer(int port, int workers) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), workers);
+    }
+
+    /**
+     * @param address address to listen on
+     * @param workers threads compressing and expanding
+     */
+    public ZipServer(InetSocketAddress address, int workers) throws IOException {
+        if (workers < 1) throw new IllegalArgumentException("Illegal value for workers = " + workers);
+        this.workers = Executors.newFixedThreadPool(workers, r -> newThread(r, "zip-worker-"));
+        server = new ServerSocket();
+        server.bind(address);
+        newThread(this::accept, "zip-accept-").start();
+    }
+
+    /**
+     * Runs a server until the process is killed.
+     * <p>
+     * usage: {@code java com.beney.zip.ZipServer [port [workers]]}
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ZipServer server = new ZipServer(port, workers);
+        System.out.println("listening on " + server.server.getLocalSocketAddress());
+        Thread.currentThread().join();  // the server threads are daemons
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting, closes every connection and stops the workers.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket s : connections) {
+            s.close();
+        }
+        // requests never started are cancelled, which ends the threads waiting for them
+        for (Runnable r : workers.shutdownNow()) {
+            if (r instanceof Future) ((Future<?>) r).cancel(false);
+        }
+    }
+
+    //**************************** private methods ********************************//
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                if (!closed) e.printStackTrace();
+                return;
+            }
+            connections.add(socket);
+            newThread(() -> serve(socket), "zip-connection-").start();
+        }
+    }
+
+    /**
+     * Reads the requests of a connection and hands them to the workers, while a second
+     * thread writes the responses in order.
+     */
+    private void serve(Socket socket) {
+        BlockingQueue<Pending> pending = new ArrayBlockingQueue<>(PIPELINE);
+        AtomicBoolean responding = new AtomicBoolean(true);
+        Thread reader = Thread.currentThread();
+        newThread(() -> respond(socket, pending, responding, reader), "zip-response-").start();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER));
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;  // the client is done
+                }
+                int codec = in.readUnsignedByte();
+                int id = in.readInt();
+                int length = in.readInt();
+                if (op > EXPAND || codec >= Codec.values().length || length < 0 || length > MAX_LENGTH) {
+                    put(pending, responding, new Pending(CompletableFuture.completedFuture(
+                            error(id, "Malformed request: operation " + op + ", codec " + codec + ", length " + length)), 0));
+                    break;
+                }
+                budget.acquire(length);     // released once the response is written
+                Pending p;
+                try {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    p = admit(op, Codec.values()[codec], id, data);
+                } catch (IOException | RuntimeException e) {
+                    budget.release(length);
+                    throw e;
+                }
+                put(pending, responding, p);
+            }
+        } catch (IOException e) {
+            if (!closed && !socket.isClosed()) e.printStackTrace();
+        } catch (InterruptedException e) {
+            return;     // the responses stopped, see respond()
+        }
+        try {
+            put(pending, responding, END);
+        } catch (InterruptedException e) {
+            // the responses stopped
+        }
+    }
+
+    /**
+     * Charges the budget, which already holds the data of the request, with the most its
+     * response can take, and hands the request to the workers. The charge is taken whole:
+     * if the budget cannot give the rest at once, the data is released and the whole
+     * charge waited for, so waiting readers never hold part of the budget each.
+     *
+     * @return the pending request, holding its charge
+     */
+    private Pending admit(int op, Codec codec, int id, byte[] data) throws InterruptedException {
+        long output;
+        if (codec == Codec.STORED) {
+            output = 0;     // the response is the data itself
+        } else if (op == COMPRESS) {
+            output = 2L * data.length + HEADERS;    // LZW codes take at most two bytes per byte
+        } else {
+            long declared;
+            try {
+                declared = headers[codec.ordinal()].expandedLength(data, 0, data.length);
+            } catch (RuntimeException e) {
+                declared = -1;  // corrupt, the worker answers it
+            }
+            // refuse before decoding: expanding allocates what the header declares
+            if (declared > MAX_LENGTH) {
+                budget.release(data.length);
+                return new Pending(CompletableFuture.completedFuture(error(id, "Response too large: " + declared)), 0);
+            }
+            output = declared < 0 ? MAX_LENGTH : declared;
+        }
+        int charge = (int) Math.min(BUDGET, data.length + output);
+        int rest = charge - data.length;
+        if (!budget.tryAcquire(rest)) {
+            budget.release(data.length);
+            budget.acquire(charge);
+        }
+        try {
+            return new Pending(workers.submit(() -> process(op, codec, id, data)), charge);
+        } catch (RuntimeException e) {
+            budget.release(rest);   // the caller releases the data
+            throw e;
+        }
+    }
+
+    /**
+     * Queues {@code p}, releasing its budget at once if the responses already stopped.
+     */
+    private void put(BlockingQueue<Pending> pending, AtomicBoolean responding, Pending p) throws InterruptedException {
+        try {
+            pending.put(p);
+        } catch (InterruptedException e) {
+            budget.release(p.bytes);
+            throw e;
+        }
+        if (!responding.get()) drain(pending);
+    }
+
+    /**
+     * Releases the budget of every request left in {@code pending}; every request is
+     * taken from the queue once, so by whichever thread gets it.
+     */
+    private void drain(BlockingQueue<Pending> pending) {
+        for (Pending p; (p = pending.poll()) != null; ) {
+            if (p.response != null) p.response.cancel(false);
+            budget.release(p.bytes);
+        }
+    }
+
+    /**
+     * Writes the responses in the order of the requests until {@link #END}, releasing
+     * the budget of each. Ends the connection when done, interrupting {@code reader} in
+     * case it waits for room in {@code pending} or in the budget.
+     */
+    private void respond(Socket socket, BlockingQueue<Pending> pending, AtomicBoolean responding, Thread reader) {
+        try (Socket s = socket) {
+            BufferedOutputStream out = new BufferedOutputStream(s.getOutputStream(), BUFFER);
+            while (true) {
+                // flush only when nothing more is ready, so pipelined responses share packets
+                Pending next = pending.poll();
+                if (next == null) {
+                    out.flush();
+                    next = pending.take();
+                }
+                if (next == END) break;
+                try {
+                    next.response.get().writeTo(out);
+                } finally {
+                    budget.release(next.bytes);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            if (!closed) e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();     // process() answers every failure itself
+        } catch (CancellationException | InterruptedException e) {
+            // closing
+        } finally {
+            connections.remove(socket);
+            responding.set(false);
+            drain(pending);
+            reader.interrupt();
+        }
+    }
+
+    /**
+     * @return the response to the request, whose size {@link #admit(int, Codec, int, byte[])}
+     *      already charged
+     */
+    private Response process(int op, Codec codec, int id, byte[] data) {
+        try {
+            byte[] result;
+            if (codec == Codec.STORED) {
+                result = data;
+            } else if (op == COMPRESS) {
+                result = codecs.get()[codec.ordinal()].compressBlock(data, 0, data.length);
+            } else {
+                result = codecs.get()[codec.ordinal()].expandBlock(data, 0, data.length);
+            }
+            // codecs without a declared length, such as LZW, are only checked afterwards
+            if (result.length > MAX_LENGTH) return error(id, "Response too large: " + result.length);
+            return new Response(id, OK, result);
+        } catch (RuntimeException e) {
+            return error(id, e.toString());
+        }
+    }
+
+    private static Response error(int id, String message) {
+        return new Response(id, ERROR, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static BlockCodec[] newCodecs() {
+        Codec[] all = Codec.values();
+        BlockCodec[] c = new BlockCodec[all.length];
+        for (Codec k : all) {
+            c[k.ordinal()] = k.create();
+        }
+        return c;
+    }
+
+    private Thread newThread(Runnable r, String prefix) {
+        Thread t = new Thread(r, prefix + threads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,57 @@
+package com.beney.zip;
+
+import com.beney.zip.ArchiveZip.Codec;
+import com.beney.zip.ArchiveZip.Entry;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of a directory of every sample input through {@link ArchiveZip}.
+ *
+ * @author Beney
+ */
+class ArchiveZipTest {
+
+    @ParameterizedTest
+    @EnumSource(Codec.class)
+    void roundTrip(Codec codec, @TempDir Path tmp) throws IOException {
+        Path dir = tmp.resolve("tree");
+        Map<String, byte[]> files = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<String, byte[]> input : Samples.inputs().entrySet()) {
+            String name = (i++ % 2 == 0 ? "" : "sub/") + input.getKey().replace(' ', '_');
+            files.put(name, input.getValue());
+            Files.createDirectories(dir.resolve(name).getParent());
+            Files.write(dir.resolve(name), input.getValue());
+        }
+        ArchiveZip zip = new ArchiveZip(codec);
+        zip.compress(dir.toString());
+        String archive = dir + zip.fileSuffix();
+
+        List<Entry> entries = zip.list(archive);
+        assertEquals(files.size(), entries.size());
+        for (Entry e : entries) {
+            assertEquals(files.get(e.name()).length, e.size(), e.name());
+            assertTrue(e.codec() == codec || e.codec() == Codec.STORED, e.name() + " " + e.codec());
+            assertArrayEquals(files.get(e.name()), zip.extract(archive, e.name()), e.name());
+        }
+
+        Files.move(dir, tmp.resolve("original"));
+        zip.expand(archive);
+        for (Map.Entry<String, byte[]> f : files.entrySet()) {
+            assertArrayEquals(f.getValue(), Files.readAllBytes(dir.resolve(f.getKey())), f.getKey());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.beney.zip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * The file methods of {@link HuffmanZip} and {@link LZWZip} keep the format of the first
+ * release: files it wrote still expand, and compressing gives the same bytes.
+ *
+ * @author Beney
+ */
+class BaselineFormatTest {
+    private static final byte[] TEXT = ("It was the best of times, it was the worst of times, "
+            + "it was the age of wisdom, it was the age of foolishness.\n").getBytes(StandardCharsets.US_ASCII);
+
+    // TEXT compressed by the first release
+    private static final byte[] HUF = Base64.getDecoder().decode(
+            "JAud0F3sJbSyW5cqTaS3ixWxCpdZllWhZ5YAAAA3V2RKH7jRyZmx3Tl+WyJQ/cRlZMzY7py/LZEofuJ+4zZFqplPy2RKH7ifuM2bzNNr1XkteoA=");
+    private static final byte[] LZW = Base64.getDecoder().decode(
+            "BJB0AgB3BhBzAgB0BoBlAgBiBlBzECBvBmEHBpBtENAsAgBpECEEEGEIEKB3BvByEOAgEQESEUBzEWEYEDEFEHEJAgBhBnEKEjB3BpBzBkBvBtEnEZEqEcEtEvEiERBmBvBvBsEzBoBuENBzAuAKEAA=");
+
+    @Test
+    void huffmanExpandsBaseline(@TempDir Path dir) throws IOException {
+        assertExpands(new HuffmanZip(), HUF, dir);
+    }
+
+    @Test
+    void huffmanCompressesLikeBaseline(@TempDir Path dir) throws IOException {
+        assertCompresses(new HuffmanZip(), HUF, dir);
+    }
+
+    @Test
+    void lzwExpandsBaseline(@TempDir Path dir) throws IOException {
+        assertExpands(new LZWZip(), LZW, dir);
+    }
+
+    @Test
+    void lzwCompressesLikeBaseline(@TempDir Path dir) throws IOException {
+        assertCompresses(new LZWZip(), LZW, dir);
+    }
+
+    //**************************** private methods ********************************//
+
+    private static void assertExpands(MyZip zip, byte[] compressed, Path dir) throws IOException {
+        Path file = dir.resolve("tale.txt");
+        Files.write(dir.resolve("tale.txt" + zip.fileSuffix()), compressed);
+        zip.expand(file + zip.fileSuffix());
+        assertArrayEquals(TEXT, Files.readAllBytes(file));
+    }
+
+    private static void assertCompresses(MyZip zip, byte[] compressed, Path dir) throws IOException {
+        Path file = dir.resolve("tale.txt");
+        Files.write(file, TEXT);
+        zip.compress(file.toString());
+        assertArrayEquals(compressed, Files.readAllBytes(dir.resolve("tale.txt" + zip.fileSuffix())));
+    }
+}
@@ -0,0 +1,78 @@
+package com.beney.zip;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of every block codec, one block at a time and through the stream methods.
+ *
+ * @author Beney
+ */
+class BlockCodecTest {
+
+    static Stream<Arguments> cases() {
+        Stream.Builder<Arguments> cases = Stream.builder();
+        for (Map.Entry<String, BlockCodec> codec : Samples.codecs().entrySet()) {
+            for (Map.Entry<String, byte[]> input : Samples.inputs().entrySet()) {
+                cases.add(Arguments.of(codec.getKey(), codec.getValue(), input.getKey(), input.getValue()));
+            }
+        }
+        return cases.build();
+    }
+
+    @ParameterizedTest(name = "{0}, {2}")
+    @MethodSource("cases")
+    void blockRoundTrip(String name, BlockCodec codec, String input, byte[] data) {
+        byte[] z = codec.compressBlock(data, 0, data.length);
+        long declared = codec.expandedLength(z, 0, z.length);
+        assertTrue(declared == -1 || declared == data.length, "declared length " + declared);
+        assertArrayEquals(data, codec.expandBlock(z, 0, z.length));
+    }
+
+    @ParameterizedTest(name = "{0}, {2}")
+    @MethodSource("cases")
+    void blockAtOffset(String name, BlockCodec codec, String input, byte[] data) {
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 3, data.length);
+        byte[] z = codec.compressBlock(padded, 3, data.length);
+        byte[] framed = new byte[z.length + 7];
+        System.arraycopy(z, 0, framed, 5, z.length);
+        assertArrayEquals(data, codec.expandBlock(framed, 5, z.length));
+    }
+
+    @ParameterizedTest(name = "{0}, {2}")
+    @MethodSource("cases")
+    void streamRoundTrip(String name, BlockCodec codec, String input, byte[] data) throws IOException {
+        byte[] z = Samples.compress(codec, data);
+        assertArrayEquals(data, Samples.expand(codec, z));
+    }
+
+    @ParameterizedTest(name = "{0}, {2}")
+    @MethodSource("cases")
+    void compressingStreams(String name, BlockCodec codec, String input, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CompressingOutputStream out = new CompressingOutputStream(bytes, codec, 1 << 16)) {
+            // odd write sizes cross the block boundaries
+            for (int off = 0, k = 1; off < data.length; off += k, k = k * 2 + 1) {
+                out.write(data, off, Math.min(k, data.length - off));
+            }
+        }
+        try (DecompressingInputStream in = new DecompressingInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()), codec)) {
+            byte[] back = in.readAllBytes();
+            assertEquals(data.length, back.length);
+            assertArrayEquals(data, back);
+        }
+    }
+}
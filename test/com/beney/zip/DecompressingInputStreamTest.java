@@ -0,0 +1,110 @@
+package com.beney.zip;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Streams of {@link CompressingOutputStream} with corrupt block lengths, which must
+ * fail with an {@link IOException} rather than allocate what they claim.
+ *
+ * @author Beney
+ */
+class DecompressingInputStreamTest {
+    private static final int BLOCK = 1 << 12;
+
+    @Test
+    void negativeLength() throws IOException {
+        byte[] z = compressed();
+        writeInt(z, 0, -1);
+        assertCorrupt(z, BLOCK);
+    }
+
+    @Test
+    void negativeCompressedLength() throws IOException {
+        byte[] z = compressed();
+        writeInt(z, 4, -1);
+        assertCorrupt(z, BLOCK);
+    }
+
+    @Test
+    void lengthOverMaxBlock() throws IOException {
+        byte[] z = compressed();
+        writeInt(z, 0, BLOCK + 1);
+        assertCorrupt(z, BLOCK);
+        // the default limit still refuses what no block can hold
+        writeInt(z, 0, Integer.MAX_VALUE);
+        assertCorrupt(z, Integer.MAX_VALUE / 2);
+    }
+
+    @Test
+    void wrongLength() throws IOException {
+        byte[] z = compressed();
+        writeInt(z, 0, BLOCK - 1);
+        IOException e = assertThrows(IOException.class, () -> read(z, BLOCK));
+        assertTrue(e.getMessage().startsWith("Corrupt block:"), e.getMessage());
+    }
+
+    @Test
+    void truncated() throws IOException {
+        byte[] z = compressed();
+        for (int length : new int[]{2, 6, 30, z.length - 1}) {
+            assertThrows(EOFException.class, () -> read(Arrays.copyOf(z, length), BLOCK), "length " + length);
+        }
+    }
+
+    @Test
+    void endMarkerOnly() throws IOException {
+        assertEquals(0, read(new byte[4], BLOCK).length);
+    }
+
+    @Test
+    void illegalMaxBlock() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new DecompressingInputStream(new ByteArrayInputStream(new byte[4]), new RansZip(), 0));
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * @return blocks of {@value BLOCK} bytes, the original and compressed length of
+     *      the first at offsets 0 and 4
+     */
+    private static byte[] compressed() throws IOException {
+        byte[] data = Samples.inputs().get("text");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CompressingOutputStream out = new CompressingOutputStream(bytes, new RansZip(), BLOCK)) {
+            out.write(data);
+        }
+        byte[] z = bytes.toByteArray();
+        assertArrayEquals(data, read(z, BLOCK));
+        return z;
+    }
+
+    private static byte[] read(byte[] z, int maxBlock) throws IOException {
+        try (DecompressingInputStream in = new DecompressingInputStream(new ByteArrayInputStream(z), new RansZip(), maxBlock)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void assertCorrupt(byte[] z, int maxBlock) {
+        IOException e = assertThrows(IOException.class, () -> read(z, maxBlock));
+        assertTrue(e.getMessage().startsWith("Corrupt block length"), e.getMessage());
+    }
+
+    private static void writeInt(byte[] b, int off, int x) {
+        b[off] = (byte) (x >>> 24);
+        b[off + 1] = (byte) (x >>> 16);
+        b[off + 2] = (byte) (x >>> 8);
+        b[off + 3] = (byte) x;
+    }
+}
@@ -0,0 +1,119 @@
+package com.beney.zip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of {@link ParallelZip} with small blocks, and streams with corrupt block
+ * lengths, which must fail with an {@link IOException} rather than allocate what they claim.
+ *
+ * @author Beney
+ */
+class ParallelZipTest {
+    private static final int BLOCK = 1 << 16;
+
+    static Stream<Arguments> cases() {
+        Stream.Builder<Arguments> cases = Stream.builder();
+        for (String codec : new String[]{"HuffmanZip(canonical)", "LZWZip", "LZ77Zip", "BwtZip"}) {
+            for (Map.Entry<String, byte[]> input : Samples.inputs().entrySet()) {
+                cases.add(Arguments.of(codec, input.getKey(), input.getValue()));
+            }
+        }
+        return cases.build();
+    }
+
+    @ParameterizedTest(name = "{0}, {1}")
+    @MethodSource("cases")
+    void streamRoundTrip(String codec, String input, byte[] data) throws IOException {
+        ParallelZip zip = new ParallelZip(Samples.codecs().get(codec), BLOCK);
+        assertArrayEquals(data, Samples.expand(zip, Samples.compress(zip, data)));
+    }
+
+    @ParameterizedTest(name = "{0}, {1}")
+    @MethodSource("cases")
+    void fileRoundTrip(String codec, String input, byte[] data, @TempDir Path dir) throws IOException {
+        ParallelZip zip = new ParallelZip(Samples.codecs().get(codec), BLOCK);
+        Path file = dir.resolve("data");
+        Files.write(file, data);
+        zip.compress(file.toString());
+        Files.delete(file);
+        zip.expand(file + zip.fileSuffix());
+        assertArrayEquals(data, Files.readAllBytes(file));
+    }
+
+    @Test
+    void expandRange(@TempDir Path dir) throws IOException {
+        byte[] data = Samples.inputs().get("text");
+        ParallelZip zip = new ParallelZip(new LZ77Zip(), BLOCK);
+        Path file = dir.resolve("data");
+        Files.write(file, data);
+        zip.compress(file.toString());
+        String compressed = file + zip.fileSuffix();
+        for (int[] range : new int[][]{{0, 0}, {0, 10}, {BLOCK - 5, 10}, {3, 3 * BLOCK}, {data.length - 1, 1}}) {
+            assertArrayEquals(Arrays.copyOfRange(data, range[0], range[0] + range[1]),
+                    zip.expandRange(compressed, range[0], range[1]));
+        }
+    }
+
+    @Test
+    void negativeCompressedLength() throws IOException {
+        byte[] z = compressed();
+        writeInt(z, 5, -5);
+        IOException e = assertThrows(IOException.class, () -> expand(z));
+        assertTrue(e.getMessage().startsWith("Corrupt block length"), e.getMessage());
+    }
+
+    @Test
+    void hugeLength() throws IOException {
+        byte[] z = compressed();
+        writeInt(z, 1, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> expand(z));
+        writeInt(z, 1, BLOCK);
+        writeInt(z, 5, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> expand(z));
+    }
+
+    @Test
+    void truncated() throws IOException {
+        byte[] z = compressed();
+        for (int length : new int[]{1, 3, 7, 20, z.length / 2}) {
+            assertThrows(EOFException.class, () -> expand(Arrays.copyOf(z, length)), "length " + length);
+        }
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * @return a version byte, then the original and compressed length of the first
+     *      block at offsets 1 and 5
+     */
+    private static byte[] compressed() throws IOException {
+        return Samples.compress(new ParallelZip(new HuffmanZip(true), BLOCK), Samples.inputs().get("text"));
+    }
+
+    private static void expand(byte[] z) throws IOException {
+        Samples.expand(new ParallelZip(new HuffmanZip(true), BLOCK), z);
+    }
+
+    private static void writeInt(byte[] b, int off, int x) {
+        b[off] = (byte) (x >>> 24);
+        b[off + 1] = (byte) (x >>> 16);
+        b[off + 2] = (byte) (x >>> 8);
+        b[off + 3] = (byte) x;
+    }
+}
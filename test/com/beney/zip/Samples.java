@@ -0,0 +1,102 @@
+package com.beney.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Inputs every codec is checked on, and the codecs themselves.
+ *
+ * @author Beney
+ */
+final class Samples {
+    private Samples() {
+    }
+
+    /**
+     * @return the inputs by name: empty, one byte, long runs, random bytes, every byte
+     *      value once, and text
+     */
+    static Map<String, byte[]> inputs() {
+        Map<String, byte[]> inputs = new LinkedHashMap<>();
+        inputs.put("empty", new byte[0]);
+        inputs.put("one byte", new byte[]{42});
+        inputs.put("long runs", runs());
+        inputs.put("random", random(100_000));
+        inputs.put("all bytes", allBytes());
+        inputs.put("text", text());
+        return inputs;
+    }
+
+    /**
+     * @return a fresh instance of every block codec by name
+     */
+    static Map<String, BlockCodec> codecs() {
+        Map<String, BlockCodec> codecs = new LinkedHashMap<>();
+        codecs.put("HuffmanZip", new HuffmanZip());
+        codecs.put("HuffmanZip(canonical)", new HuffmanZip(true));
+        codecs.put("LZWZip", new LZWZip());
+        codecs.put("LZWZip(16)", new LZWZip(16));
+        codecs.put("LZ77Zip", new LZ77Zip());
+        codecs.put("RansZip", new RansZip());
+        codecs.put("ContextHuffmanZip", new ContextHuffmanZip());
+        codecs.put("BwtZip", new BwtZip());
+        codecs.put("AutoZip", new AutoZip());
+        return codecs;
+    }
+
+    static byte[] random(int length) {
+        byte[] b = new byte[length];
+        new Random(42).nextBytes(b);
+        return b;
+    }
+
+    static byte[] compress(MyZip zip, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zip.compress(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    static byte[] expand(MyZip zip, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zip.expand(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    //**************************** private methods ********************************//
+
+    /**
+     * Runs of one byte, of growing length, the longest over a default block.
+     */
+    private static byte[] runs() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int len = 1, b = 0; out.size() < 3 << 20; len = len * 3 + 1, b++) {
+            for (int i = 0; i < len; i++) {
+                out.write(b);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] allBytes() {
+        byte[] b = new byte[256];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+
+    private static byte[] text() {
+        StringBuilder sb = new StringBuilder();
+        Random r = new Random(7);
+        String[] words = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "\n"};
+        while (sb.length() < 200_000) {
+            sb.append(words[r.nextInt(words.length)]).append(' ');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,81 @@
+package com.beney.zip;
+
+import com.beney.zip.ArchiveZip.Codec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round trips of every sample input through a {@link ZipServer}, one request at a time
+ * and pipelined.
+ *
+ * @author Beney
+ */
+class ZipServerTest {
+    private static ZipServer server;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = new ZipServer(0, 2);
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        server.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Codec.class)
+    void roundTrip(Codec codec) throws IOException {
+        try (ZipClient client = new ZipClient(server.port())) {
+            for (Map.Entry<String, byte[]> input : Samples.inputs().entrySet()) {
+                byte[] z = client.compress(codec, input.getValue());
+                assertArrayEquals(input.getValue(), client.expand(codec, z), input.getKey());
+            }
+        }
+    }
+
+    @Test
+    void pipelined() throws IOException {
+        byte[][] data = new byte[32][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Samples.random(100 + 37 * i);
+        }
+        try (ZipClient client = new ZipClient(server.port())) {
+            for (byte[] d : data) {
+                client.send(true, Codec.LZ77, d, 0, d.length);
+            }
+            byte[][] z = new byte[data.length][];
+            for (int i = 0; i < data.length; i++) {
+                z[i] = client.receive();
+            }
+            for (byte[] c : z) {
+                client.send(false, Codec.LZ77, c, 0, c.length);
+            }
+            for (byte[] d : data) {
+                assertArrayEquals(d, client.receive());
+            }
+        }
+    }
+
+    @Test
+    void failedRequestKeepsConnection() throws IOException {
+        try (ZipClient client = new ZipClient(server.port())) {
+            // a block claiming far more than a response may hold is refused before decoding
+            byte[] z = client.compress(Codec.RANS, new byte[100]);
+            z[0] = 0x7f;
+            assertThrows(IOException.class, () -> client.expand(Codec.RANS, z));
+            assertThrows(IOException.class, () -> client.expand(Codec.HUFFMAN, new byte[]{1, 2, 3}));
+            byte[] data = Samples.inputs().get("text");
+            assertArrayEquals(data, client.expand(Codec.RANS, client.compress(Codec.RANS, data)));
+        }
+    }
+}